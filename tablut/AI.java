@@ -1,25 +1,32 @@
 package tablut;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static java.lang.Math.*;
 
-import static tablut.Piece.*;
-
-/** A Player that automatically generates moves.
+/** A Player that automatically generates moves.  The search itself is
+ *  done by Search.  With more than one thread, helper threads run
+ *  their own Searches of the same position alongside mine, sharing my
+ *  transposition table (a "lazy SMP" search); only my own Search's
+ *  result is used.  Alternatively, I may use a ParallelSearch, which
+ *  splits the tree among the threads and finds the same move as a
+ *  serial search to the same depth.  If pondering, I go on searching
+ *  on the opponent's time, guessing that the opponent will make the
+ *  reply in my principal variation.  My moves are chosen on a thread
+ *  of my own (see startMove), so that the controller can ask me to
+ *  move at once (see moveNow) and I can report my progress meanwhile.
  *  @author Jeremy Ahn
  */
 class AI extends Player {
 
-    /** A position-score magnitude indicating a win (for white if positive,
-     *  black if negative). */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 20;
-    /** A position-score magnitude indicating a forced win in a subsequent
-     *  move.  This differs from WINNING_VALUE to avoid putting off wins. */
-    private static final int WILL_WIN_VALUE = Integer.MAX_VALUE - 40;
-    /** A magnitude greater than a normal value. */
-    private static final int INFTY = Integer.MAX_VALUE;
+    /** Largest search depth. */
+    static final int MAX_DEPTH = Search.MAX_DEPTH;
 
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
@@ -30,187 +37,530 @@ class AI extends Player {
     /** A new AI playing PIECE under control of CONTROLLER. */
     AI(Piece piece, Controller controller) {
         super(piece, controller);
+        _hashSize = DEFAULT_HASH_SIZE;
+        _timeLimit = DEFAULT_TIME_LIMIT;
+        _depthLimit = MAX_DEPTH;
+        _nullMovePruning = _lateMoveReductions = _futilityPruning = true;
+        _threads = Runtime.getRuntime().availableProcessors();
+        _solveLimit = DEFAULT_SOLVE_LIMIT;
+    }
+
+    /** A new AI playing PIECE under control of CONTROLLER, with the
+     *  settings of TEMPLATE. */
+    private AI(Piece piece, Controller controller, AI template) {
+        super(piece, controller);
+        _hashSize = template._hashSize;
+        _offHeap = template._offHeap;
+        _timeLimit = template._timeLimit;
+        _nodeLimit = template._nodeLimit;
+        _depthLimit = template._depthLimit;
+        _nullMovePruning = template._nullMovePruning;
+        _lateMoveReductions = template._lateMoveReductions;
+        _futilityPruning = template._futilityPruning;
+        _threads = template._threads;
+        _youngBrothers = template._youngBrothers;
+        _ponder = template._ponder;
+        _solveLimit = template._solveLimit;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
+    }
+
+    /** Use a transposition table of about SIZE bytes, allocated off the
+     *  Java heap iff OFFHEAP.  Takes effect for AIs created from me
+     *  afterwards, and for my next search. */
+    void setHashSize(long size, boolean offHeap) {
+        stop();
+        _hashSize = size;
+        _offHeap = offHeap;
+        _table = null;
+        _search = null;
+    }
+
+    /** Limit each of my searches to about MILLIS milliseconds, NODES
+     *  positions, and DEPTH plies.  A MILLIS or NODES of 0 means no limit
+     *  of that kind.  Whatever the limits, I finish a depth-1 search.
+     *  The position limit counts only the positions visited by my own
+     *  thread. */
+    void setLimits(long millis, long nodes, int depth) {
+        _timeLimit = millis;
+        _nodeLimit = nodes;
+        _depthLimit = max(1, min(depth, MAX_DEPTH));
+    }
+
+    /** Enable null-move pruning iff NULLMOVE, late-move reductions iff
+     *  REDUCTIONS, and futility pruning iff FUTILITY in my searches.  All
+     *  are enabled by default. */
+    void setPruning(boolean nullMove, boolean reductions,
+                    boolean futility) {
+        _nullMovePruning = nullMove;
+        _lateMoveReductions = reductions;
+        _futilityPruning = futility;
+    }
+
+    /** Before searching a position in which the king has an open line
+     *  to a corner or is partly surrounded, try to prove a forced win by
+     *  visiting at most NODES positions with a Solver, playing the first
+     *  move of the win at once if there is one.  0 turns this off. */
+    void setSolveLimit(long nodes) {
+        _solveLimit = max(0, nodes);
+    }
+
+    /** Search with THREADS threads (at least 1), counting my own.  The
+     *  default is the number of available processors. */
+    void setThreads(int threads) {
+        _threads = max(1, threads);
+        shutdown();
+    }
+
+    /** Search with a ParallelSearch (Young Brothers Wait) iff ON, rather
+     *  than with helper threads sharing a transposition table.  Its
+     *  result depends only on the position and depth limit, not on the
+     *  number of threads, but it does less pruning. */
+    void setYoungBrothersWait(boolean on) {
+        _youngBrothers = on;
+        shutdown();
+    }
+
+    /** Ponder iff ON: after each of my moves, search the position after
+     *  the reply I expect until the opponent moves.  If the opponent
+     *  makes that reply, my next search continues the pondering search,
+     *  with my limits starting from the time of the reply; otherwise, the
+     *  pondering is stopped and a new search started.  Does nothing with
+     *  setYoungBrothersWait. */
+    void setPondering(boolean on) {
+        _ponder = on;
+    }
+
+    /** Stop my helper threads, if any.  They are started again by my next
+     *  search. */
+    void shutdown() {
+        stop();
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
+        if (_pool != null) {
+            _pool.shutdownNow();
+            _pool = null;
+        }
+        if (_ponderer != null) {
+            _ponderer.shutdownNow();
+            _ponderer = null;
+        }
+        if (_thinker != null) {
+            _thinker.shutdownNow();
+            _thinker = null;
+        }
+        _search = null;
+        _parallel = null;
     }
 
     @Override
     /** //return ""; FIXME */
     String myMove() {
-        Move move = findMove();
+        Board position = board();
+        Move move;
+        _reporting = true;
+        if (_pondering != null && position.hash() == _ponderHash
+            && position.moveCount() == _ponderMoveCount) {
+            move = finishPondering();
+        } else {
+            stop();
+            move = findMove(position);
+        }
+        _reporting = false;
         _controller.reportMove(move);
+        if (_ponder && !_youngBrothers) {
+            startPondering(position, move);
+        }
         return move.toString();
     }
 
+    @Override
+    Future<String> startMove() {
+        _hurry = false;
+        if (_thinker == null) {
+            _thinker = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "AI search");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return _thinker.submit(this::myMove);
+    }
+
+    @Override
+    void moveNow() {
+        _hurry = true;
+        Search search = _search;
+        ParallelSearch parallel = _parallel;
+        if (_youngBrothers && parallel != null) {
+            parallel.stop();
+        } else if (!_youngBrothers && search != null) {
+            search.stop();
+        }
+    }
+
+    @Override
+    void stop() {
+        if (_pondering != null) {
+            _search.stop();
+            try {
+                await(_pondering);
+            } finally {
+                _pondering = null;
+                stopHelpers();
+            }
+        }
+    }
+
     @Override
     boolean isManual() {
         return false;
     }
 
-    /** Return a move for me from the current position, assuming there
-     *  is a move.
-     *  // FIXME */
-    private Move findMove() {
-        Board b = new Board(board());
-        _lastFoundMove = null;
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else if (_myPiece == BLACK) {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound.
-     *  //return 0; // FIXME */
-    private int findMove(Board board, int depth, boolean saveMove,
-                         int sense, int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
-        }
-        if (sense == 1) {
-            int bestsofar = -INFTY;
-            if (board.legalMoves(board.turn()) == null
-                    || board.legalMoves(board.turn()).size() == 0) {
-                return bestsofar;
+    /** Return a move for the side to move in POSITION, which is not
+     *  changed, assuming there is a move.  Searches to depth 1, 2, ...
+     *  until a limit set by setLimits runs out or a forced result is
+     *  found, and returns the best move of the last search that ran to
+     *  completion.  Meanwhile, my helper threads search the same
+     *  position, half of them starting a ply deeper, until I finish.
+     *  With setYoungBrothersWait, uses my ParallelSearch instead. */
+    Move findMove(Board position) {
+        long deadline = _timeLimit == 0 ? Long.MAX_VALUE
+            : System.currentTimeMillis() + _timeLimit;
+        if (_youngBrothers) {
+            if (_parallel == null) {
+                _pool = _threads == 1 ? null : new ForkJoinPool(_threads);
+                _parallel = new ParallelSearch(_pool);
+                _parallel.setListener(this::reportProgress);
             }
-            Move best = board.legalMoves(board.turn()).get(0);
-            List<Move> all = board.legalMoves(board.turn());
-            for (Move move : all) {
-                Board clone = new Board(board);
-                clone.makeMove(move);
-                int ret = findMove(clone, depth - 1,
-                        false, sense * -1, alpha, beta);
-                clone.undo();
-                if (ret > bestsofar) {
-                    best = move;
-                }
-                bestsofar = max(bestsofar, ret);
-                alpha = max(alpha, bestsofar);
-                if (beta <= alpha) {
-                    break;
-                }
+            _parallel.reset(position);
+            _started = System.currentTimeMillis();
+            if (_hurry) {
+                _parallel.stop();
             }
-            if (saveMove) {
-                _lastFoundMove = best;
-            }
-            return bestsofar;
-        } else {
-            int worstsofar = INFTY;
-            if (board.legalMoves(board.turn()) == null
-                    || board.legalMoves(board.turn()).size() == 0) {
-                return worstsofar;
+            _parallel.run(1, _depthLimit, deadline, _nodeLimit);
+            return Move.mv(_parallel.bestMove());
+        }
+        startSearches(position);
+        if (_hurry) {
+            _search.stop();
+        }
+        try {
+            _search.run(1, _depthLimit, deadline, _nodeLimit);
+        } finally {
+            stopHelpers();
+        }
+        return Move.mv(_search.bestMove());
+    }
+
+    /** Start pondering on the position reached from POSITION by my MOVE
+     *  and the reply to it in my principal variation, if there is one
+     *  and neither move ends the game. */
+    private void startPondering(Board position, Move move) {
+        List<Move> line = principalVariation();
+        if (line.size() < 2 || line.get(0) != move) {
+            return;
+        }
+        Board guess = new Board(position);
+        guess.makeMove(move);
+        if (guess.winner() != null || !guess.isLegal(line.get(1))) {
+            return;
+        }
+        guess.makeMove(line.get(1));
+        if (guess.winner() != null) {
+            return;
+        }
+        _ponderHash = guess.hash();
+        _ponderMoveCount = guess.moveCount();
+        startSearches(guess);
+        _search.setLimits(Long.MAX_VALUE, 0);
+        if (_ponderer == null) {
+            _ponderer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "AI ponder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        Search search = _search;
+        int last = _depthLimit;
+        _pondering = _ponderer.submit(() -> search.run(1, last));
+    }
+
+    /** Having guessed the opponent's reply correctly, limit my pondering
+     *  search as for a new search starting now, wait for it to finish,
+     *  and return its move. */
+    private Move finishPondering() {
+        _search.setLimits(_timeLimit == 0 ? Long.MAX_VALUE
+                          : System.currentTimeMillis() + _timeLimit,
+                          _nodeLimit == 0 ? 0
+                          : _search.nodes() + _nodeLimit);
+        if (_hurry) {
+            _search.stop();
+        }
+        try {
+            await(_pondering);
+        } finally {
+            _pondering = null;
+            stopHelpers();
+        }
+        return Move.mv(_search.bestMove());
+    }
+
+    /** Start a new search of POSITION by my helper threads, and prepare
+     *  my own Search to search it. */
+    private void startSearches(Board position) {
+        startSearches();
+        _table.newSearch();
+        _search.reset(position);
+        for (Search helper : _helpers) {
+            helper.reset(position);
+        }
+        _started = System.currentTimeMillis();
+        _running.clear();
+        for (int k = 0; k < _helpers.length; k += 1) {
+            Search helper = _helpers[k];
+            int first = 1 + k % 2;
+            _running.add(_executor.submit(() ->
+                helper.run(first, MAX_DEPTH, Long.MAX_VALUE, 0)));
+        }
+    }
+
+    /** Stop my helper threads' searches and wait for them to finish. */
+    private void stopHelpers() {
+        for (Search helper : _helpers) {
+            helper.stop();
+        }
+        for (Future<?> helper : _running) {
+            await(helper);
+        }
+        _running.clear();
+    }
+
+    /** Report the results of the iteration my search has just completed
+     *  to my controller, if I am choosing a move for it. */
+    private void reportProgress() {
+        if (_reporting) {
+            long millis = max(1, System.currentTimeMillis() - _started);
+            _controller.reportSearch(depth(), value(), principalVariation(),
+                                     nodes() * 1000 / millis);
+        }
+    }
+
+    /** Wait for the search TASK to finish. */
+    private static void await(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException excp) {
+            throw new IllegalStateException("search failed: "
+                                            + excp.getCause(), excp);
+        }
+    }
+
+    /** Create my transposition table, Searches, and helper threads as
+     *  needed for the current settings. */
+    private void startSearches() {
+        if (_table == null) {
+            _table = new TranspositionTable(_hashSize, _offHeap);
+            _search = null;
+        }
+        if (_search == null) {
+            _search = new Search(_table);
+            _search.setListener(this::reportProgress);
+            _helpers = new Search[_threads - 1];
+            for (int k = 0; k < _helpers.length; k += 1) {
+                _helpers[k] = new Search(_table);
             }
-            Move worst = board.legalMoves(board.turn()).get(0);
-
-            for (Move mv : board.legalMoves(board.turn())) {
-                Board clone = new Board(board);
-                clone.makeMove(mv);
-                int val = findMove(clone, depth - 1,
-                        false, sense * -1, alpha, beta);
-                clone.undo();
-                if (val < worstsofar) {
-                    worst = mv;
-                }
-                worstsofar = min(worstsofar, val);
-                beta = min(worstsofar, beta);
-                if (beta <= alpha) {
-                    break;
-                }
+        }
+        if (_executor == null && _helpers.length > 0) {
+            _executor = Executors.newFixedThreadPool(_helpers.length, r -> {
+                Thread thread = new Thread(r, "AI helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        _search.setPruning(_nullMovePruning, _lateMoveReductions,
+                           _futilityPruning);
+        if (_solveLimit > 0 && _solver == null) {
+            _solver = new Solver();
+        }
+        _search.setSolver(_solveLimit > 0 ? _solver : null,
+                          Solver.DEFAULT_DEPTH, _solveLimit);
+        for (Search helper : _helpers) {
+            helper.setPruning(_nullMovePruning, _lateMoveReductions,
+                              _futilityPruning);
+        }
+    }
+
+    /** Return the principal variation found by my last search: the
+     *  best line of play, starting with my move, according to the
+     *  deepest iteration that ran to completion.  A ParallelSearch
+     *  reports only the move. */
+    List<Move> principalVariation() {
+        List<Move> line = new ArrayList<>();
+        if (_youngBrothers) {
+            if (_parallel != null && _parallel.bestMove() != 0) {
+                line.add(Move.mv(_parallel.bestMove()));
             }
-            if (saveMove) {
-                _lastFoundMove = worst;
+        } else if (_search != null) {
+            for (int move : _search.principalVariation()) {
+                line.add(Move.mv(move));
             }
-            return worstsofar;
-        }
-    }
-
-    /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD.
-     *  // return 4; // FIXME? */
-    private static int maxDepth(Board board) {
-        HashSet<Square> blacks = board.pieceLocations(BLACK);
-        HashSet<Square> whites = board.pieceLocations(WHITE);
-        int left = blacks.size() + whites.size();
-        int result = left / 10;
-        if (left > HIGH) {
-            return result;
-        } else if (left > MID) {
-            return result;
-        } else {
-            return result;
         }
+        return line;
     }
 
-    /** Return a heuristic value for BOARD.
-     * // return 0;  // FIXME */
-    private int staticScore(Board board) {
-        edge = WILL_WIN_VALUE;
-        surrounding = -WILL_WIN_VALUE;
-        Square kings = board.kingPosition();
-        int mine = board.pieceLocations(myPiece()).size();
-        int opp = board.pieceLocations(myPiece().opponent()).size();
-        if (opp > mine) {
-            oppop = -WILL_WIN_VALUE;
-        } else {
-            myp = WILL_WIN_VALUE;
-        }
-        if (board.winner() == myPiece()) {
-            return INFTY;
-        } else if (board.winner() == myPiece().opponent()) {
-            return -INFTY;
+    /** Return the depth of the last iteration of my last search that ran
+     *  to completion. */
+    int depth() {
+        if (_youngBrothers) {
+            return _parallel == null ? 0 : _parallel.depth();
         }
+        return _search == null ? 0 : _search.depth();
+    }
 
-        int col = kings.col();
-        int row = kings.row();
-        int top = Board.SIZE - row;
-        int right = Board.SIZE - col;
-        int toedge = Math.min(top, Math.min(row, Math.min(col, right)));
-        int surrcount = 0;
-        if (board.get(row + 1, col) == BLACK) {
-            surrcount++;
-        }
-        if (board.get(row - 1, col) == BLACK) {
-            surrcount++;
+    /** Return the value, for the side to move, found by the last
+     *  iteration of my last search that ran to completion. */
+    int value() {
+        if (_youngBrothers) {
+            return _parallel == null ? 0 : _parallel.value();
         }
-        if (board.get(row, col - 1) == BLACK) {
-            surrcount++;
+        return _search == null ? 0 : _search.value();
+    }
+
+    /** Return the number of positions visited by my last search,
+     *  including those visited by my helper threads. */
+    long nodes() {
+        long nodes = 0;
+        if (_youngBrothers) {
+            nodes = _parallel == null ? 0 : _parallel.nodes();
+        } else if (_search != null) {
+            nodes = _search.nodes();
+            for (Search helper : _helpers) {
+                nodes += helper.nodes();
+            }
         }
-        if (myPiece() == WHITE) {
-            toedge *= -1;
-            surrcount *= -1;
+        return nodes;
+    }
+
+    /** Return the number of static evaluations in my current or last
+     *  search, by all its threads, that reached stage STAGE of the
+     *  evaluation (see Evaluator). */
+    long stageCount(int stage) {
+        long count = 0;
+        if (_youngBrothers) {
+            count = _parallel == null ? 0 : _parallel.stageCount(stage);
+        } else if (_search != null) {
+            count = _search.stageCount(stage);
+            for (Search helper : _helpers) {
+                count += helper.stageCount(stage);
+            }
         }
-        return (myp * mine) + (oppop * opp)
-                + (edge * toedge) + (surrounding * surrcount);
+        return count;
     }
 
-    /** point for king on edge. */
-    private int edge;
+    /** Transposition table for my searches, created on first use. */
+    private TranspositionTable _table;
+
+    /** My own Search, created on first use. */
+    private Search _search;
+
+    /** The Searches run by my helper threads. */
+    private Search[] _helpers = new Search[0];
+
+    /** Proves wins for my own Search, created on first use. */
+    private Solver _solver;
+
+    /** Most positions _solver visits in one search (0 to turn it
+     *  off). */
+    private long _solveLimit;
+
+    /** Runs my helper threads' searches, created on first use. */
+    private ExecutorService _executor;
+
+    /** The helper searches started by the last call to
+     *  startSearches(Board) that have not been stopped. */
+    private final List<Future<?>> _running = new ArrayList<>();
+
+    /** Runs myMove for startMove, created on first use. */
+    private ExecutorService _thinker;
+
+    /** True iff moveNow has been called since the last startMove. */
+    private volatile boolean _hurry;
+
+    /** True iff my search is choosing a move, so that its progress is
+     *  to be reported. */
+    private volatile boolean _reporting;
+
+    /** Time (as for System.currentTimeMillis) at which my current or
+     *  last search started. */
+    private volatile long _started;
+
+    /** True iff I ponder after my moves. */
+    private boolean _ponder;
+
+    /** Runs my pondering search, created on first use. */
+    private ExecutorService _ponderer;
+
+    /** My pondering search, if it is running, or else null. */
+    private Future<?> _pondering;
+
+    /** The hash of the position my pondering search is searching. */
+    private long _ponderHash;
+
+    /** The move count of the position my pondering search is
+     *  searching. */
+    private int _ponderMoveCount;
+
+    /** My Young Brothers Wait search, created on first use. */
+    private ParallelSearch _parallel;
+
+    /** The pool on which _parallel runs, or null if it runs serially. */
+    private ForkJoinPool _pool;
+
+    /** True iff I search with _parallel. */
+    private boolean _youngBrothers;
+
+    /** Size in bytes of my transposition table. */
+    private long _hashSize;
+
+    /** True iff my transposition table is to be allocated off-heap. */
+    private boolean _offHeap;
+
+    /** Longest time in milliseconds for one search (0 for no limit). */
+    private long _timeLimit;
+
+    /** Most positions to visit in one search (0 for no limit). */
+    private long _nodeLimit;
+
+    /** Deepest iteration of one search. */
+    private int _depthLimit;
+
+    /** True iff my searches use null-move pruning. */
+    private boolean _nullMovePruning;
+
+    /** True iff my searches use late-move reductions. */
+    private boolean _lateMoveReductions;
 
-    /** int for my piece point. */
-    private int myp;
+    /** True iff my searches use futility pruning. */
+    private boolean _futilityPruning;
 
-    /** int for opponenet point. */
-    private int oppop;
+    /** Number of threads to search with, counting my own. */
+    private int _threads;
 
-    /** int variable for point for surrounding. */
-    private int surrounding;
+    /** Default time limit in milliseconds for one search. */
+    static final long DEFAULT_TIME_LIMIT = 1000;
 
-    /** high for depth. */
-    static final int HIGH = 40;
+    /** Default limit on the positions visited in one search by my
+     *  Solver. */
+    static final long DEFAULT_SOLVE_LIMIT = 2000;
 
-    /** mid for depth. */
-    static final int MID = 30;
+    /** Default size in bytes of the transposition table. */
+    static final long DEFAULT_HASH_SIZE = 16L << 20;
 }
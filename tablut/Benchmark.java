@@ -0,0 +1,98 @@
+package tablut;
+
+/** A benchmark of the AI's parallel search.  For each number of threads
+ *  (by default 1, 2, 4, 8, and 16), it searches each of a few positions
+ *  to a fixed depth and reports the total time, the positions visited,
+ *  the speedup over the first thread count, the static evaluations, and
+ *  the percentages of them that reached the second and third stages
+ *  (see Evaluator), for tuning the evaluation's margins.  Usage:
+ *      java tablut.Benchmark [DEPTH [THREADS ...]]
+ *  @author Jeremy Ahn
+ */
+public class Benchmark {
+
+    /** Default search depth. */
+    private static final int DEFAULT_DEPTH = 7;
+
+    /** Default numbers of threads. */
+    private static final int[] DEFAULT_THREADS = { 1, 2, 4, 8, 16 };
+
+    /** The positions searched, each given by the moves that reach it from
+     *  the initial position. */
+    private static final String[] POSITIONS = {
+        "",
+        "a4-b c5-6 e8-f e6-f b4-c c6-7",
+        "a4-b c5-6 e8-f e6-f b4-c c6-7 d9-7 c7-9 f8-7 f6-e d7-8 g5-6 f7-6"
+        + " e6-7 i4-f e5-6",
+    };
+
+    /** Run the benchmark as described above, with ARGS giving the depth
+     *  and the numbers of threads. */
+    public static void main(String... args) {
+        int depth = DEFAULT_DEPTH;
+        int[] threads = DEFAULT_THREADS;
+        try {
+            if (args.length > 0) {
+                depth = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                threads = new int[args.length - 1];
+                for (int k = 1; k < args.length; k += 1) {
+                    threads[k - 1] = Integer.parseInt(args[k]);
+                }
+            }
+        } catch (NumberFormatException excp) {
+            System.err.println("Usage: java tablut.Benchmark"
+                               + " [DEPTH [THREADS ...]]");
+            System.exit(1);
+        }
+
+        System.out.printf("Depth %d, %d positions, %d processors%n", depth,
+                          POSITIONS.length,
+                          Runtime.getRuntime().availableProcessors());
+        System.out.printf("%7s %9s %12s %11s %7s %12s %7s %7s%n",
+                          "threads", "ms", "nodes", "nodes/s", "speedup",
+                          "evals", "stage2", "stage3");
+        double baseline = 0;
+        for (int n : threads) {
+            AI ai = new AI();
+            ai.setLimits(0, 0, depth);
+            ai.setThreads(n);
+            long nanos = 0, nodes = 0;
+            long[] stages = new long[Evaluator.STAGES];
+            for (String moves : POSITIONS) {
+                Board board = position(moves);
+                long start = System.nanoTime();
+                ai.findMove(board);
+                nanos += System.nanoTime() - start;
+                nodes += ai.nodes();
+                for (int k = 0; k < stages.length; k += 1) {
+                    stages[k] += ai.stageCount(k);
+                }
+            }
+            ai.shutdown();
+            double millis = nanos / 1e6;
+            if (baseline == 0) {
+                baseline = millis;
+            }
+            double evals = Math.max(1, stages[0]);
+            System.out.printf("%7d %9.0f %12d %11.0f %7.2f %12d %6.1f%% "
+                              + "%6.1f%%%n", n, millis, nodes,
+                              nodes / millis * 1000, baseline / millis,
+                              stages[0], 100 * stages[1] / evals,
+                              100 * stages[2] / evals);
+        }
+    }
+
+    /** Return the board reached from the initial position by MOVES, a
+     *  sequence of moves separated by blanks. */
+    private static Board position(String moves) {
+        Board board = new Board();
+        for (String move : moves.trim().split("\\s+")) {
+            if (!move.isEmpty()) {
+                board.makeMove(Move.mv(move));
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,235 @@
+package tablut;
+
+import static tablut.Square.*;
+
+/** Static helpers for sets of squares on a Tablut board, represented as
+ *  81-bit masks packed into pairs of longs.  The LO word holds the
+ *  squares with indices 0-63 and the low 17 bits of the HI word hold the
+ *  squares with indices 64-80.  Square indices are laid out by rows
+ *  (index = row * SIZE + col), so shifting a mask by one bit moves it a
+ *  column east and shifting by SIZE bits moves it a row north.
+ *  @author Jeremy Ahn
+ */
+final class BitBoard {
+
+    /** Number of squares on a side. */
+    static final int SIZE = Board.SIZE;
+
+    /** Number of square bits held in the LO word. */
+    static final int LO_BITS = 64;
+
+    /** The bits of the HI word that correspond to squares. */
+    static final long HI_MASK = (1L << (NUM_SQUARES - LO_BITS)) - 1;
+
+    /** COL_LO[c], COL_HI[c] is the mask of all squares in column C. */
+    static final long[] COL_LO = new long[SIZE], COL_HI = new long[SIZE];
+
+    /** ROW_LO[r], ROW_HI[r] is the mask of all squares in row R. */
+    static final long[] ROW_LO = new long[SIZE], ROW_HI = new long[SIZE];
+
+    /** The throne. */
+    static final long THRONE_LO, THRONE_HI;
+
+    /** The four squares orthogonally adjacent to the throne. */
+    static final long NEAR_THRONE_LO, NEAR_THRONE_HI;
+
+    /** The four corner squares. */
+    static final long CORNERS_LO, CORNERS_HI;
+
+    /** All squares on the edge of the board. */
+    static final long EDGE_LO, EDGE_HI;
+
+    /** PATH_LO[i][j], PATH_HI[i][j] is the set of squares that must be
+     *  empty for a rook move from square index I to square index J: the
+     *  squares strictly between them and J itself.  Empty if I-J is not
+     *  a rook move. */
+    static final long[][] PATH_LO = new long[NUM_SQUARES][NUM_SQUARES],
+        PATH_HI = new long[NUM_SQUARES][NUM_SQUARES];
+
+    /** BAND_LO[i], BAND_HI[i] is the mask of the squares in the three rows
+     *  and three columns centered on square index I: the squares in or
+     *  next to the row or column of I. */
+    static final long[] BAND_LO = new long[NUM_SQUARES],
+        BAND_HI = new long[NUM_SQUARES];
+
+    /** Number of possible occupancies of a row or column. */
+    static final int LINE_OCCUPANCIES = 1 << SIZE;
+
+    /** LINE_REACH[p][occ] is the set of positions (as bits 0 to SIZE - 1)
+     *  on a row or column that a piece at position P can slide to when
+     *  the positions in the set OCC are occupied.  Bit P of OCC is
+     *  ignored.  For a row, positions are columns; for a column, they are
+     *  rows. */
+    static final int[][] LINE_REACH = new int[SIZE][LINE_OCCUPANCIES];
+
+    /** LINE_EXITS[occ] is the set of positions on an edge row or column,
+     *  other than its two ends (the corners), that are empty and from
+     *  which a piece can slide to an empty end, when the positions in OCC
+     *  are occupied. */
+    static final int[] LINE_EXITS = new int[LINE_OCCUPANCIES];
+
+    /** Not instantiable. */
+    private BitBoard() {
+    }
+
+    /** Return the LO word of the mask containing only square INDEX. */
+    static long lo(int index) {
+        return index < LO_BITS ? 1L << index : 0L;
+    }
+
+    /** Return the HI word of the mask containing only square INDEX. */
+    static long hi(int index) {
+        return index < LO_BITS ? 0L : 1L << (index - LO_BITS);
+    }
+
+    /** Return the LO word of the mask containing only S. */
+    static long lo(Square s) {
+        return lo(s.index());
+    }
+
+    /** Return the HI word of the mask containing only S. */
+    static long hi(Square s) {
+        return hi(s.index());
+    }
+
+    /** Return true iff the mask LO, HI contains square INDEX. */
+    static boolean contains(long lo, long hi, int index) {
+        if (index < LO_BITS) {
+            return (lo & (1L << index)) != 0;
+        }
+        return (hi & (1L << (index - LO_BITS))) != 0;
+    }
+
+    /** Return true iff the mask LO, HI is empty. */
+    static boolean isEmpty(long lo, long hi) {
+        return (lo | hi) == 0;
+    }
+
+    /** Return the number of squares in the mask LO, HI. */
+    static int count(long lo, long hi) {
+        return Long.bitCount(lo) + Long.bitCount(hi);
+    }
+
+    /** Return the lowest square index in the mask LO, HI, or -1 if the
+     *  mask is empty. */
+    static int first(long lo, long hi) {
+        if (lo != 0) {
+            return Long.numberOfTrailingZeros(lo);
+        } else if (hi != 0) {
+            return LO_BITS + Long.numberOfTrailingZeros(hi);
+        }
+        return -1;
+    }
+
+    /** Return the LO word of the mask LO, HI shifted one square in
+     *  direction DIR (as for Square.rookMove).  Squares shifted off the
+     *  board are dropped. */
+    static long shiftLo(long lo, long hi, int dir) {
+        switch (dir) {
+        case 0:
+            return lo << SIZE;
+        case 1:
+            return (lo & ~COL_LO[SIZE - 1]) << 1;
+        case 2:
+            return (lo >>> SIZE) | (hi << (LO_BITS - SIZE));
+        case 3:
+            return ((lo & ~COL_LO[0]) >>> 1) | ((hi & ~COL_HI[0]) << 63);
+        default:
+            throw new IllegalArgumentException("bad direction");
+        }
+    }
+
+    /** Return the HI word of the mask LO, HI shifted one square in
+     *  direction DIR (as for Square.rookMove).  Squares shifted off the
+     *  board are dropped. */
+    static long shiftHi(long lo, long hi, int dir) {
+        switch (dir) {
+        case 0:
+            return ((hi << SIZE) | (lo >>> (LO_BITS - SIZE))) & HI_MASK;
+        case 1:
+            return (((hi & ~COL_HI[SIZE - 1]) << 1)
+                    | ((lo & ~COL_LO[SIZE - 1]) >>> 63)) & HI_MASK;
+        case 2:
+            return hi >>> SIZE;
+        case 3:
+            return (hi & ~COL_HI[0]) >>> 1;
+        default:
+            throw new IllegalArgumentException("bad direction");
+        }
+    }
+
+    static {
+        Square throne = sq(SIZE / 2, SIZE / 2);
+        long thLo = 0, thHi = 0, ntLo = 0, ntHi = 0, cLo = 0, cHi = 0,
+            eLo = 0, eHi = 0;
+        for (Square s : SQUARE_LIST) {
+            assert s.index() == s.row() * SIZE + s.col();
+            int c = s.col(), r = s.row();
+            COL_LO[c] |= lo(s);
+            COL_HI[c] |= hi(s);
+            ROW_LO[r] |= lo(s);
+            ROW_HI[r] |= hi(s);
+            if (s == throne) {
+                thLo |= lo(s);
+                thHi |= hi(s);
+            } else if (Math.abs(c - throne.col())
+                       + Math.abs(r - throne.row()) == 1) {
+                ntLo |= lo(s);
+                ntHi |= hi(s);
+            }
+            boolean colEdge = c == 0 || c == SIZE - 1,
+                rowEdge = r == 0 || r == SIZE - 1;
+            if (colEdge || rowEdge) {
+                eLo |= lo(s);
+                eHi |= hi(s);
+                if (colEdge && rowEdge) {
+                    cLo |= lo(s);
+                    cHi |= hi(s);
+                }
+            }
+            for (int d = 0; d < 4; d += 1) {
+                long pLo = 0, pHi = 0;
+                for (Square t : ROOK_SQUARES[s.index()][d]) {
+                    pLo |= lo(t);
+                    pHi |= hi(t);
+                    PATH_LO[s.index()][t.index()] = pLo;
+                    PATH_HI[s.index()][t.index()] = pHi;
+                }
+            }
+        }
+        THRONE_LO = thLo;
+        THRONE_HI = thHi;
+        NEAR_THRONE_LO = ntLo;
+        NEAR_THRONE_HI = ntHi;
+        CORNERS_LO = cLo;
+        CORNERS_HI = cHi;
+        EDGE_LO = eLo;
+        EDGE_HI = eHi;
+        for (Square s : SQUARE_LIST) {
+            for (Square t : SQUARE_LIST) {
+                if (Math.abs(s.col() - t.col()) <= 1
+                    || Math.abs(s.row() - t.row()) <= 1) {
+                    BAND_LO[s.index()] |= lo(t);
+                    BAND_HI[s.index()] |= hi(t);
+                }
+            }
+        }
+        int ends = 1 | 1 << (SIZE - 1);
+        for (int occ = 0; occ < LINE_OCCUPANCIES; occ += 1) {
+            for (int p = 0; p < SIZE; p += 1) {
+                int reach = 0;
+                for (int q = p + 1; q < SIZE && (occ & 1 << q) == 0; q += 1) {
+                    reach |= 1 << q;
+                }
+                for (int q = p - 1; q >= 0 && (occ & 1 << q) == 0; q -= 1) {
+                    reach |= 1 << q;
+                }
+                LINE_REACH[p][occ] = reach;
+                if ((occ & 1 << p) == 0 && (ends & 1 << p) == 0
+                    && (reach & ends) != 0) {
+                    LINE_EXITS[occ] |= 1 << p;
+                }
+            }
+        }
+    }
+}
@@ -1,14 +1,16 @@
 package tablut;
 
-import java.util.HashSet;
-import java.util.Stack;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
 import java.util.ArrayList;
 
 import static tablut.Piece.*;
 import static tablut.Square.*;
-import static tablut.Move.mv;
+import static tablut.BitBoard.*;
+import static tablut.Zobrist.BLACK_TO_MOVE;
+import static tablut.Move.MoveList;
 
 
 /** The state of a Tablut Game.
@@ -30,6 +32,79 @@ class Board {
             WTHRONE = sq(3, 4),
             ETHRONE = sq(5, 4);
 
+    /**
+     * Index of the throne square.
+     */
+    static final int THRONE_INDEX = THRONE.index();
+
+    /**
+     * The value in pieces that exchange() gives to capturing the king:
+     * more than all the other pieces together.
+     */
+    static final int KING_EXCHANGE = NUM_SQUARES;
+
+    /**
+     * An upper bound on the number of legal moves for one side in any
+     * position.  Each empty square can be reached from at most four
+     * directions, which also covers boards edited with toggles.
+     */
+    static final int MAX_MOVES = 4 * NUM_SQUARES;
+
+    /**
+     * The largest number of king moves to a corner that cornerDistance()
+     * looks for.
+     */
+    static final int MAX_CORNER_DISTANCE = 3;
+
+    /**
+     * The indices of the four corner squares.
+     */
+    static final int[] CORNER_INDICES = {
+        0, SIZE - 1, NUM_SQUARES - SIZE, NUM_SQUARES - 1
+    };
+
+    /**
+     * NEIGHBOR[i][d] is the index of the square next to square index I in
+     * direction D (as for Square.rookMove), or -1 if there is none.
+     */
+    static final int[][] NEIGHBOR = new int[NUM_SQUARES][4];
+
+    /**
+     * BEYOND[i][d] is the index of the square two steps from square index
+     * I in direction D: the far side of a sandwich of the piece at
+     * NEIGHBOR[i][d].  -1 if there is none.
+     */
+    static final int[][] BEYOND = new int[NUM_SQUARES][4];
+
+    /**
+     * For the throne and the four squares next to it, KING_GUARD_LO[i],
+     * KING_GUARD_HI[i] is the mask of the neighbors of square index I
+     * other than the throne: a king on I is captured when all of them are
+     * black (the throne itself being empty, and so hostile, when the king
+     * is beside it).  Empty for all other squares, where the king is
+     * captured like any other piece.
+     */
+    static final long[] KING_GUARD_LO = new long[NUM_SQUARES],
+        KING_GUARD_HI = new long[NUM_SQUARES];
+
+    static {
+        for (Square s : SQUARE_LIST) {
+            int i = s.index();
+            boolean nearThrone = s == THRONE || s.rookMove(0, 1) == THRONE
+                || s.rookMove(1, 1) == THRONE || s.rookMove(2, 1) == THRONE
+                || s.rookMove(3, 1) == THRONE;
+            for (int d = 0; d < 4; d += 1) {
+                Square n = s.rookMove(d, 1), b = s.rookMove(d, 2);
+                NEIGHBOR[i][d] = n == null ? -1 : n.index();
+                BEYOND[i][d] = b == null ? -1 : b.index();
+                if (nearThrone && n != THRONE) {
+                    KING_GUARD_LO[i] |= lo(n);
+                    KING_GUARD_HI[i] |= hi(n);
+                }
+            }
+        }
+    }
+
     /**
      * Initial positions of attackers.
      */
@@ -48,6 +123,31 @@ class Board {
             sq(4, 6), sq(4, 2), sq(2, 4), sq(6, 4)
     };
 
+    /**
+     * Initial capacity of the position history.
+     */
+    private static final int INITIAL_HISTORY = 256;
+
+    /**
+     * Initial capacity of the undo records.
+     */
+    private static final int INITIAL_UNDO = 256;
+
+    /**
+     * Width of a move code (see Move.code) in a packed undo record.
+     */
+    private static final int MOVE_BITS = 2 * Move.SQUARE_BITS;
+
+    /**
+     * Width and mask of a Piece ordinal in a packed undo record.
+     */
+    private static final int PIECE_BITS = 2, PIECE_MASK = 0x3;
+
+    /**
+     * All Pieces, indexed by ordinal.
+     */
+    private static final Piece[] PIECES = Piece.values();
+
     /**
      * Initializes a game board with SIZE squares on a side in the
      * initial position.
@@ -64,23 +164,64 @@ class Board {
     }
 
     /**
-     * Copies MODEL into me.
-     * // FIXME
+     * Copies MODEL into me, including its undo records and position
+     * history.  Allocates only if MODEL's records have outgrown mine.
      */
     void copy(Board model) {
         if (model == this) {
             return;
         }
-        init();
+        _moveLimit = model._moveLimit;
         _turn = model._turn;
         _moveCount = model._moveCount;
         _repeated = model._repeated;
         _winner = model._winner;
-        _board = new Piece[SIZE][SIZE];
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                _board[y][x] = model._board[y][x];
-            }
+        System.arraycopy(model._board, 0, _board, 0, NUM_SQUARES);
+        _blackLo = model._blackLo;
+        _blackHi = model._blackHi;
+        _whiteLo = model._whiteLo;
+        _whiteHi = model._whiteHi;
+        _kingLo = model._kingLo;
+        _kingHi = model._kingHi;
+        for (int o = 0; o < _pieceSquares.length; o += 1) {
+            System.arraycopy(model._pieceSquares[o], 0, _pieceSquares[o], 0,
+                             model._pieceCount[o]);
+        }
+        System.arraycopy(model._pieceCount, 0, _pieceCount, 0,
+                         _pieceCount.length);
+        System.arraycopy(model._pieceIndex, 0, _pieceIndex, 0, NUM_SQUARES);
+        System.arraycopy(model._rowOccupancy, 0, _rowOccupancy, 0, SIZE);
+        System.arraycopy(model._colOccupancy, 0, _colOccupancy, 0, SIZE);
+        _enPriseLo = model._enPriseLo;
+        _enPriseHi = model._enPriseHi;
+        _kingAttackLo = model._kingAttackLo;
+        _kingAttackHi = model._kingAttackHi;
+        _staleLo = model._staleLo;
+        _staleHi = model._staleHi;
+        _kingPathsStale = true;
+        _hash = model._hash;
+        if (_history.length < model._historySize) {
+            _history = new long[model._history.length];
+        }
+        System.arraycopy(model._history, 0, _history, 0, model._historySize);
+        _historySize = model._historySize;
+        if (_undoMove.length < model._undoTop) {
+            growUndo(model._undoMove.length);
+        }
+        System.arraycopy(model._undoMove, 0, _undoMove, 0, model._undoTop);
+        System.arraycopy(model._undoState, 0, _undoState, 0, model._undoTop);
+        System.arraycopy(model._undoHash, 0, _undoHash, 0, model._undoTop);
+        System.arraycopy(model._undoCaptureStart, 0, _undoCaptureStart, 0,
+                         model._undoTop);
+        _undoTop = model._undoTop;
+        if (_undoCaptures.length < model._captureTop) {
+            _undoCaptures = new int[model._undoCaptures.length];
+        }
+        System.arraycopy(model._undoCaptures, 0, _undoCaptures, 0,
+                         model._captureTop);
+        _captureTop = model._captureTop;
+        if (_listener != null) {
+            _listener.positionSet(this);
         }
     }
 
@@ -89,40 +230,32 @@ class Board {
      * // FIXME
      */
     void init() {
-        encoded = new HashSet<String>();
         _turn = BLACK;
         _winner = null;
         _moveCount = 0;
         _repeated = false;
-        _allMoves = new Stack<Move>();
-        _allSquare = new Stack<Square>();
-        _allPiece = new Stack<Piece>();
-        _board = new Piece[SIZE][SIZE];
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-
-                for (Square sq : INITIAL_ATTACKERS) {
-                    if (sq.row() == x && sq.col() == y) {
-                        _board[y][x] = BLACK;
-                    }
-                }
-
-                for (Square sq : INITIAL_DEFENDERS) {
-                    if (sq.row() == x && sq.col() == y) {
-                        _board[y][x] = WHITE;
-                    }
-                }
-
-                if (x == THRONE.row() && y == THRONE.col()) {
-                    _board[y][x] = KING;
-                }
-
-                if (_board[y][x] == null) {
-                    _board[y][x] = EMPTY;
-                }
-            }
+        _undoTop = _captureTop = 0;
+        Arrays.fill(_board, EMPTY);
+        _blackLo = _blackHi = _whiteLo = _whiteHi = _kingLo = _kingHi = 0;
+        Arrays.fill(_pieceCount, 0);
+        Arrays.fill(_rowOccupancy, 0);
+        Arrays.fill(_colOccupancy, 0);
+        _enPriseLo = _enPriseHi = _kingAttackLo = _kingAttackHi = 0;
+        _staleLo = ~0L;
+        _staleHi = HI_MASK;
+        _hash = Zobrist.turnKey(_turn);
+        for (Square sq : INITIAL_ATTACKERS) {
+            put(BLACK, sq);
+        }
+        for (Square sq : INITIAL_DEFENDERS) {
+            put(WHITE, sq);
+        }
+        put(KING, THRONE);
+        _history[0] = _hash;
+        _historySize = 1;
+        if (_listener != null) {
+            _listener.positionSet(this);
         }
-        repeat = encodedBoard();
     }
 
     /**
@@ -139,6 +272,25 @@ class Board {
         }
     }
 
+    /**
+     * Make LISTENER (if not null) follow my pieces from now on, in place
+     * of any previous listener.  A Board copied from me does not share
+     * it.
+     */
+    void setListener(BoardListener listener) {
+        _listener = listener;
+        if (listener != null) {
+            listener.positionSet(this);
+        }
+    }
+
+    /**
+     * Return the listener following my pieces, or null if there is none.
+     */
+    BoardListener listener() {
+        return _listener;
+    }
+
     /**
      * Return a Piece representing whose move it is (WHITE or BLACK).
      */
@@ -161,19 +313,35 @@ class Board {
         return _repeated;
     }
 
+    /**
+     * Return the Zobrist hash (see Zobrist) of the current position,
+     * including the side to move.
+     */
+    long hash() {
+        return _hash;
+    }
+
     /**
      * Record current position and set winner() next mover if the current
-     * position is a repeat.
-     * // FIXME
+     * position is a repeat.  As in the original rules, a position repeats
+     * an earlier one with the same pieces on the same squares, whichever
+     * side was to move, so hashes are compared both with and without
+     * BLACK_TO_MOVE.
      */
     private void checkRepeated() {
-        String mine = this.encodedBoard();
-        if (encoded.contains(mine.substring(1))) {
-            _repeated = true;
-            _winner = turn().opponent();
-        } else {
-            encoded.add(mine.substring(1));
+        long other = _hash ^ BLACK_TO_MOVE;
+        for (int k = _historySize - 1; k >= 0; k -= 1) {
+            if (_history[k] == _hash || _history[k] == other) {
+                _repeated = true;
+                _winner = turn();
+                break;
+            }
+        }
+        if (_historySize == _history.length) {
+            _history = Arrays.copyOf(_history, 2 * _history.length);
         }
+        _history[_historySize] = _hash;
+        _historySize += 1;
     }
 
     /**
@@ -184,20 +352,33 @@ class Board {
         return _moveCount;
     }
 
+    /**
+     * Return the last move made (encoded as for Move.code), or 0 if it
+     * was a null move or there is no record of one to undo.
+     */
+    int lastMove() {
+        if (_undoTop == 0) {
+            return 0;
+        }
+        return _undoMove[_undoTop - 1] & ((1 << MOVE_BITS) - 1);
+    }
+
     /**
      * Return location of the king.
      * // return null; FIXME
      */
     Square kingPosition() {
-        Square kings = null;
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                if (_board[y][x] == KING) {
-                    kings = sq(y, x);
-                }
-            }
-        }
-        return kings;
+        int k = kingIndex();
+        return k < 0 ? null : sq(k);
+    }
+
+    /**
+     * Return the index of the square holding the king, or -1 if there is
+     * none.
+     */
+    int kingIndex() {
+        int o = KING.ordinal();
+        return _pieceCount[o] == 0 ? -1 : _pieceSquares[o][0];
     }
 
     /**
@@ -213,7 +394,7 @@ class Board {
      * // return null; FIXME
      */
     final Piece get(int col, int row) {
-        return _board[col][row];
+        return _board[sq(col, row).index()];
     }
 
     /**
@@ -224,20 +405,156 @@ class Board {
     }
 
     /**
-     * Set square S to P.
-     * // FIXME
+     * Set square S to P, updating the occupancy masks, piece lists, and
+     * hash.
      */
     final void put(Piece p, Square s) {
-        _board[s.col()][s.row()] = p;
+        int i = s.index();
+        long lo = lo(i), hi = hi(i);
+        Piece old = _board[i];
+        _hash ^= Zobrist.key(old, i) ^ Zobrist.key(p, i);
+        if (old != EMPTY) {
+            removePiece(old, i);
+        }
+        if (p != EMPTY) {
+            addPiece(p, i);
+        }
+        if ((old == EMPTY) != (p == EMPTY)) {
+            _rowOccupancy[i / SIZE] ^= 1 << (i % SIZE);
+            _colOccupancy[i % SIZE] ^= 1 << (i / SIZE);
+        }
+        _staleLo |= BAND_LO[i];
+        _staleHi |= BAND_HI[i];
+        _kingPathsStale = true;
+        _board[i] = p;
+        _blackLo &= ~lo;
+        _blackHi &= ~hi;
+        _whiteLo &= ~lo;
+        _whiteHi &= ~hi;
+        _kingLo &= ~lo;
+        _kingHi &= ~hi;
+        switch (p) {
+        case BLACK:
+            _blackLo |= lo;
+            _blackHi |= hi;
+            break;
+        case WHITE:
+            _whiteLo |= lo;
+            _whiteHi |= hi;
+            break;
+        case KING:
+            _kingLo |= lo;
+            _kingHi |= hi;
+            break;
+        default:
+            break;
+        }
     }
 
     /**
-     * Set square S to P and record for undoing.
-     * // FIXME
+     * Add square index I to the list of squares holding P.
+     */
+    private void addPiece(Piece p, int i) {
+        int o = p.ordinal();
+        _pieceIndex[i] = _pieceCount[o];
+        _pieceSquares[o][_pieceCount[o]] = i;
+        _pieceCount[o] += 1;
+        if (_listener != null) {
+            _listener.pieceAdded(this, p, i);
+        }
+    }
+
+    /**
+     * Remove square index I from the list of squares holding P, moving the
+     * last entry of the list into its place.
+     */
+    private void removePiece(Piece p, int i) {
+        int o = p.ordinal();
+        _pieceCount[o] -= 1;
+        int k = _pieceIndex[i], last = _pieceSquares[o][_pieceCount[o]];
+        _pieceSquares[o][k] = last;
+        _pieceIndex[last] = k;
+        if (_listener != null) {
+            _listener.pieceRemoved(this, p, i);
+        }
+    }
+
+    /**
+     * Return the number of squares holding P (WHITE, BLACK, or KING).
+     */
+    final int pieceCount(Piece p) {
+        return _pieceCount[p.ordinal()];
+    }
+
+    /**
+     * Return the index of the Kth square holding P (WHITE, BLACK, or
+     * KING), for 0 <= K < pieceCount(P).  The order is arbitrary, and
+     * changes as pieces move.
+     */
+    final int pieceSquare(Piece p, int k) {
+        return _pieceSquares[p.ordinal()][k];
+    }
+
+    /**
+     * Return the LO word of the occupancy mask (see BitBoard) of the
+     * squares holding P.  For P == EMPTY, the mask of empty squares.
+     */
+    final long piecesLo(Piece p) {
+        switch (p) {
+        case BLACK:
+            return _blackLo;
+        case WHITE:
+            return _whiteLo;
+        case KING:
+            return _kingLo;
+        default:
+            return ~(_blackLo | _whiteLo | _kingLo);
+        }
+    }
+
+    /**
+     * Return the HI word of the occupancy mask (see BitBoard) of the
+     * squares holding P.  For P == EMPTY, the mask of empty squares.
+     */
+    final long piecesHi(Piece p) {
+        switch (p) {
+        case BLACK:
+            return _blackHi;
+        case WHITE:
+            return _whiteHi;
+        case KING:
+            return _kingHi;
+        default:
+            return ~(_blackHi | _whiteHi | _kingHi) & HI_MASK;
+        }
+    }
+
+    /**
+     * Return the LO word of the mask of all occupied squares.
+     */
+    final long occupiedLo() {
+        return _blackLo | _whiteLo | _kingLo;
+    }
+
+    /**
+     * Return the HI word of the mask of all occupied squares.
+     */
+    final long occupiedHi() {
+        return _blackHi | _whiteHi | _kingHi;
+    }
+
+    /**
+     * Set square S to P and record its previous contents in the undo
+     * record of the move being made, so that undo() restores it.
      */
     final void revPut(Piece p, Square s) {
-        _allPiece.push(get(s));
-        _allSquare.push(s);
+        if (_captureTop == _undoCaptures.length) {
+            _undoCaptures = Arrays.copyOf(_undoCaptures,
+                                          2 * _undoCaptures.length);
+        }
+        _undoCaptures[_captureTop] =
+            (s.index() << PIECE_BITS) | get(s).ordinal();
+        _captureTop += 1;
         put(p, s);
     }
 
@@ -251,24 +568,124 @@ class Board {
     /**
      * Return true iff FROM - TO is an unblocked rook move on the current
      * board.  For this to be true, FROM-TO must be a rook move and the
-     * squares along it, other than FROM, must be empty.
-     * // FIXME
+     * squares along it, other than FROM, must be empty.  Looks up the
+     * squares reachable from FROM along its row or column by the
+     * occupancy of that line (see BitBoard.LINE_REACH).
      */
     boolean isUnblockedMove(Square from, Square to) {
-        if (get(to.col(), to.row()) != EMPTY) {
-            return false;
-        } else if (!from.isRookMove(to)) {
-            return false;
-        } else {
-            int dir = from.direction(to);
-            while (from != to) {
-                if (get(from.rookMove(dir, 1)) != EMPTY) {
-                    return false;
-                }
-                from = from.rookMove(dir, 1);
+        int fc = from.col(), fr = from.row(), tc = to.col(), tr = to.row();
+        if (fr == tr) {
+            return (LINE_REACH[fc][_rowOccupancy[fr]] & 1 << tc) != 0;
+        } else if (fc == tc) {
+            return (LINE_REACH[fr][_colOccupancy[fc]] & 1 << tr) != 0;
+        }
+        return false;
+    }
+
+    /**
+     * Return the set of columns that a piece on square index I could
+     * reach along its row, as bits 0 to SIZE - 1.
+     */
+    int rowReach(int i) {
+        return LINE_REACH[i % SIZE][_rowOccupancy[i / SIZE]];
+    }
+
+    /**
+     * Return the set of rows that a piece on square index I could reach
+     * along its column, as bits 0 to SIZE - 1.
+     */
+    int columnReach(int i) {
+        return LINE_REACH[i / SIZE][_colOccupancy[i % SIZE]];
+    }
+
+    /**
+     * Return the least number of moves, at most MAX_CORNER_DISTANCE, in
+     * which the king could reach a corner if black did not move, or
+     * MAX_CORNER_DISTANCE + 1 if it could not (or there is no king).
+     * Only the edge rows and columns lead to corners, so the squares from
+     * which the king could reach a corner in one move are the exits of
+     * those lines (see BitBoard.LINE_EXITS); the squares reached by the
+     * king's lines are then checked against the exits, and against the
+     * lines through the exits.  Takes a few dozen table lookups.
+     */
+    int cornerDistance() {
+        int k = kingIndex();
+        if (k < 0) {
+            return MAX_CORNER_DISTANCE + 1;
+        }
+        findExits(k);
+        int kc = k % SIZE, kr = k / SIZE;
+        if ((exitsInRow(kr) & 1 << kc) != 0) {
+            return 1;
+        }
+        int across = rowReach(k), along = columnReach(k);
+        if ((across & exitsInRow(kr)) != 0
+            || (along & exitsInColumn(kc)) != 0) {
+            return 2;
+        }
+        for (int c = 0; c < SIZE; c += 1) {
+            if ((across & 1 << c) != 0
+                && (LINE_REACH[kr][_colOccupancy[c]] & exitsInColumn(c))
+                   != 0) {
+                return 3;
+            }
+        }
+        for (int r = 0; r < SIZE; r += 1) {
+            if ((along & 1 << r) != 0
+                && (LINE_REACH[kc][_rowOccupancy[r]] & exitsInRow(r)) != 0) {
+                return 3;
             }
         }
-        return true;
+        return MAX_CORNER_DISTANCE + 1;
+    }
+
+    /**
+     * Return true iff the king, having moved to square index I, could
+     * move on to a corner unless black blocks it.
+     */
+    boolean isCornerApproach(int i) {
+        int k = kingIndex();
+        if (k < 0) {
+            return false;
+        }
+        findExits(k);
+        return (exitsInRow(i / SIZE) & 1 << (i % SIZE)) != 0;
+    }
+
+    /**
+     * Set _exits to the exits (see BitBoard.LINE_EXITS) of the south,
+     * north, west, and east edges, as if the king, on square index K,
+     * were not on the board.
+     */
+    private void findExits(int k) {
+        int kc = k % SIZE, kr = k / SIZE;
+        int rowLift = ~(1 << kc), colLift = ~(1 << kr);
+        _exits[0] = LINE_EXITS[_rowOccupancy[0] & (kr == 0 ? rowLift : ~0)];
+        _exits[1] = LINE_EXITS[_rowOccupancy[SIZE - 1]
+                               & (kr == SIZE - 1 ? rowLift : ~0)];
+        _exits[2] = LINE_EXITS[_colOccupancy[0] & (kc == 0 ? colLift : ~0)];
+        _exits[3] = LINE_EXITS[_colOccupancy[SIZE - 1]
+                               & (kc == SIZE - 1 ? colLift : ~0)];
+    }
+
+    /**
+     * Return the set of columns of the exits found by the last findExits
+     * that lie in row R.
+     */
+    private int exitsInRow(int r) {
+        int exits = r == 0 ? _exits[0] : r == SIZE - 1 ? _exits[1] : 0;
+        return exits | (_exits[2] >>> r & 1)
+            | (_exits[3] >>> r & 1) << (SIZE - 1);
+    }
+
+    /**
+     * Return the set of rows of the exits found by the last findExits that
+     * lie in column C.
+     */
+    private int exitsInColumn(int c) {
+        int exits = c == 0 ? _exits[2] : c == SIZE - 1 ? _exits[3] : 0;
+        return exits | (_exits[0] >>> c & 1)
+            | (_exits[1] >>> c & 1) << (SIZE - 1);
     }
 
     /**
@@ -279,13 +696,13 @@ class Board {
     }
 
     /**
-     * Return true iff FROM-TO is a valid move.
-     * // FIXME
+     * Return true iff FROM-TO is a valid move.  Only the king may land on
+     * the throne.
      */
     boolean isLegal(Square from, Square to) {
         Piece p = get(from.col(), from.row());
         if (p == _turn || (p == KING && _turn == WHITE)) {
-            return isUnblockedMove(from, to);
+            return (to != THRONE || p == KING) && isUnblockedMove(from, to);
         }
         return false;
     }
@@ -304,32 +721,47 @@ class Board {
      */
     void makeMove(Square from, Square to) {
         assert isLegal(from, to);
-        revPut(_board[from.col()][from.row()], to);
+        Piece moved = get(from);
+        pushUndo(from, to, moved);
         put(EMPTY, from);
-        _allMoves.push(mv(from, to));
-        captured = false;
-        if (get(THRONE) != KING && get(NTHRONE) != KING && get(WTHRONE) != KING
-                && get(STHRONE) != KING && get(ETHRONE) != KING) {
-            for (Square sq : possible(to)) {
-                capture(to, sq);
-            }
-        }
-        if (possible(to) != null) {
-            for (Square sq : possible(to)) {
-                capture(to, sq);
-            }
-        }
+        put(moved, to);
+        capture(from.index(), to.index());
         if (winner() == null) {
-            int y = kingPosition().col();
-            int x = kingPosition().row();
-            if ((y == 0 && x == 0) || (y == 0 && x == 8)
-                    || (y == 8 && x == 0) || (y == 8 && x == 8)) {
+            int k = kingIndex();
+            if (k >= 0 && contains(CORNERS_LO, CORNERS_HI, k)) {
                 _winner = WHITE;
             }
         }
         _moveCount++;
+        _turn = _turn.opponent();
+        _hash ^= BLACK_TO_MOVE;
         checkRepeated();
+        if (_winner == null && !hasMove(_turn)) {
+            _winner = _turn.opponent();
+        }
+    }
+
+    /**
+     * Pass the move to the opponent without moving: a null move, which
+     * the rules do not allow but which the AI's search uses to estimate
+     * how strong a position is.  Assumes there is no winner.  undo()
+     * takes it back.  The position after a null move is not recorded in
+     * the history checked for repetitions, since no real game can reach
+     * it that way.
+     */
+    void makeNullMove() {
+        pushUndo(sq(0), sq(0), EMPTY);
+        _moveCount++;
         _turn = _turn.opponent();
+        _hash ^= BLACK_TO_MOVE;
+    }
+
+    /**
+     * Move according to MOVE, encoded as for Move.code, assuming it is a
+     * legal move.
+     */
+    void makeMove(int move) {
+        makeMove(sq(Move.from(move)), sq(Move.to(move)));
     }
 
     /**
@@ -340,282 +772,691 @@ class Board {
     }
 
     /**
-     * helper for THRONE-KING capture.
-     *
-     * @param to Square we're going to
-     */
-    void throne(Square to) {
-        if (get(THRONE) == KING) {
-            if (get(NTHRONE) == WHITE && get(STHRONE) == BLACK
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == BLACK) {
-                if (get(NTHRONE.between(to)) == WHITE && get(to) == BLACK) {
-                    revPut(EMPTY, NTHRONE.between(to));
-                    captured = true;
+     * Remove the pieces captured by the piece that has just moved from the
+     * square with index FROM to the square with index TO, recording them
+     * with revPut() so that undo() restores them, and set the winner if
+     * the king is captured.  Return the number of pieces captured.
+     */
+    private int capture(int from, int to) {
+        int dirs = captureDirections(from, to, _board[to].side());
+        int n = 0;
+        for (int d = 0; dirs != 0; d += 1, dirs >>>= 1) {
+            if ((dirs & 1) != 0) {
+                int victim = NEIGHBOR[to][d];
+                if (_board[victim] == KING) {
+                    _winner = BLACK;
                 }
+                revPut(EMPTY, sq(victim));
+                n += 1;
             }
-            if (get(NTHRONE) == BLACK && get(STHRONE) == WHITE
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == BLACK) {
-                if (get(STHRONE.between(to)) == WHITE && get(to) == BLACK) {
-                    revPut(EMPTY, STHRONE.between(to));
-                    captured = true;
-                }
+        }
+        return n;
+    }
+
+    /**
+     * Return the number of pieces that the legal move MOVE (encoded as for
+     * Move.code) would capture from the current position.  Does not
+     * change the position.
+     */
+    int captures(int move) {
+        int from = Move.from(move), to = Move.to(move);
+        return Integer.bitCount(captureDirections(from, to,
+                                                  _board[from].side()));
+    }
+
+    /**
+     * Return true iff the legal move MOVE (encoded as for Move.code) would
+     * capture at least one piece from the current position.
+     */
+    boolean isCapture(int move) {
+        int from = Move.from(move), to = Move.to(move);
+        return captureDirections(from, to, _board[from].side()) != 0;
+    }
+
+    /**
+     * Return the set of directions (bit D set for direction D, as for
+     * Square.rookMove) in which a piece of side MOVER moving from the
+     * square with index FROM to the square with index TO captures the
+     * adjacent piece.  The board may be either just before or just after
+     * the move.  Makes a single pass over the four directions using the
+     * NEIGHBOR, BEYOND, and KING_GUARD tables.
+     */
+    private int captureDirections(int from, int to, Piece mover) {
+        long fromLo = ~lo(from), fromHi = ~hi(from),
+            toLo = lo(to), toHi = hi(to);
+        long blackLo = _blackLo, blackHi = _blackHi;
+        long hostileLo, hostileHi;
+        Piece throne = from == THRONE_INDEX ? EMPTY
+            : to == THRONE_INDEX ? KING : _board[THRONE_INDEX];
+        if (mover == BLACK) {
+            blackLo = (blackLo & fromLo) | toLo;
+            blackHi = (blackHi & fromHi) | toHi;
+            hostileLo = blackLo;
+            hostileHi = blackHi;
+            if (throne == EMPTY
+                || (throne == KING
+                    && count(blackLo & NEAR_THRONE_LO,
+                             blackHi & NEAR_THRONE_HI) >= 3)) {
+                hostileLo |= THRONE_LO;
+                hostileHi |= THRONE_HI;
             }
-            if (get(NTHRONE) == BLACK && get(STHRONE) == BLACK
-                    && get(ETHRONE) == WHITE && get(WTHRONE) == BLACK) {
-                if (get(ETHRONE.between(to)) == WHITE && get(to) == BLACK) {
-                    revPut(EMPTY, ETHRONE.between(to));
-                    captured = true;
-                }
+        } else {
+            hostileLo = ((_whiteLo | _kingLo) & fromLo) | toLo;
+            hostileHi = ((_whiteHi | _kingHi) & fromHi) | toHi;
+            if (throne == EMPTY) {
+                hostileLo |= THRONE_LO;
+                hostileHi |= THRONE_HI;
             }
-            if (get(NTHRONE) == BLACK && get(STHRONE) == BLACK
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == WHITE) {
-                if (get(WTHRONE.between(to)) == WHITE && get(to) == BLACK) {
-                    revPut(EMPTY, WTHRONE.between(to));
-                    captured = true;
-                }
+        }
+        int dirs = 0;
+        for (int d = 0; d < 4; d += 1) {
+            int victim = NEIGHBOR[to][d];
+            if (victim < 0 || victim == from) {
+                continue;
+            }
+            Piece p = _board[victim];
+            if (p == EMPTY || p.side() == mover) {
+                continue;
+            }
+            long guardLo = KING_GUARD_LO[victim],
+                guardHi = KING_GUARD_HI[victim];
+            boolean taken;
+            if (p == KING && (guardLo | guardHi) != 0) {
+                taken = (blackLo & guardLo) == guardLo
+                    && (blackHi & guardHi) == guardHi;
+            } else {
+                int beyond = BEYOND[to][d];
+                taken = beyond >= 0 && contains(hostileLo, hostileHi, beyond);
             }
-            if (get(NTHRONE) == BLACK && get(STHRONE) == BLACK
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == BLACK) {
-                revPut(EMPTY, kingPosition());
-                captured = true;
-                _winner = BLACK;
+            if (taken) {
+                dirs |= 1 << d;
             }
         }
+        return dirs;
     }
 
     /**
-     * helper to check the the THRONE and surrounding squares.
-     *
-     * @param to Square ti where we're going to
-     */
-    void check(Square to) {
-        if (get(THRONE) == EMPTY) {
-            if (_turn == BLACK) {
-                if (get(NTHRONE) == KING) {
-                    if (get(THRONE.rookMove(0, 2)) == BLACK
-                            && get(NTHRONE.rookMove(1, 1)) == BLACK
-                            && get(NTHRONE.rookMove(3, 1)) == BLACK) {
-                        revPut(EMPTY, NTHRONE);
-                        captured = true;
-                        _winner = turn();
-                    }
-                } else if (get(STHRONE) == KING) {
-                    if (get(THRONE.rookMove(2, 2)) == BLACK
-                            && get(STHRONE.rookMove(3, 1)) == BLACK
-                            && get(STHRONE.rookMove(1, 1)) == BLACK) {
-                        revPut(EMPTY, STHRONE);
-                        captured = true;
-                        _winner = turn();
-                    }
-                } else if (get(ETHRONE) == KING) {
-                    if (get(THRONE.rookMove(1, 2)) == BLACK
-                            && get(ETHRONE.rookMove(0, 1)) == BLACK
-                            && get(ETHRONE.rookMove(2, 1)) == BLACK) {
-                        revPut(EMPTY, ETHRONE);
-                        captured = true;
-                        _winner = turn();
-                    }
-                } else if (get(WTHRONE) == KING) {
-                    if (get(THRONE.rookMove(3, 2)) == BLACK
-                            && get(WTHRONE.rookMove(0, 1)) == BLACK
-                            && get(WTHRONE.rookMove(2, 1)) == BLACK) {
-                        revPut(EMPTY, WTHRONE);
-                        captured = true;
-                        _winner = turn();
-                    }
-                }
-                if (get(THRONE.between(to)) == WHITE) {
-                    revPut(EMPTY, THRONE.between(to));
-                    captured = true;
-                }
-            }
-            if (_turn == WHITE) {
-                if (get(THRONE.between(to)) == BLACK) {
-                    revPut(EMPTY, THRONE.between(to));
-                    captured = true;
-                }
-            }
+     * Open an undo record for the move FROM-TO of MOVED, saving the
+     * current turn, winner, repetition flag, and hash.  Squares changed by
+     * revPut() until the next call are added to this record.
+     */
+    private void pushUndo(Square from, Square to, Piece moved) {
+        if (_undoTop == _undoMove.length) {
+            growUndo(2 * _undoMove.length);
         }
+        int k = _undoTop;
+        _undoMove[k] = Move.code(from.index(), to.index())
+            | (moved.ordinal() << MOVE_BITS);
+        _undoState[k] = _turn.ordinal()
+            | ((_winner == null ? 0 : _winner.ordinal() + 1) << PIECE_BITS)
+            | ((_repeated ? 1 : 0) << (2 * PIECE_BITS));
+        _undoHash[k] = _hash;
+        _undoCaptureStart[k] = _captureTop;
+        _undoTop += 1;
     }
 
     /**
-     * helper for capture, all the diff situation.
-     *
-     * @param to the square we're going to
-     * @return List<Square> list of possible square that
-     * could be captured
-     */
-    List<Square> possible(Square to) {
-        List<Square> toremove = new ArrayList<>();
-        List<Square> poss = new ArrayList<>();
-        throne(to);
-        check(to);
-        Square up = to.rookMove(0, 2);
-        if (up != null) {
-            poss.add(up);
-        }
-        Square right = to.rookMove(1, 2);
-        if (right != null) {
-            poss.add(right);
-        }
-        Square down = to.rookMove(2, 2);
-        if (down != null) {
-            poss.add(down);
-        }
-        Square left = to.rookMove(3, 2);
-        if (left != null) {
-            poss.add(left);
-        }
-        for (Square sq : poss) {
-            if (get(THRONE) != KING && get(NTHRONE) != KING
-                    && get(WTHRONE) != KING && get(STHRONE) != KING
-                    && get(ETHRONE) != KING && get(to.between(sq)) == KING
-                    && get(to) == BLACK && get(sq) == BLACK) {
-                toremove.add(sq);
-                revPut(EMPTY, to.between(sq));
-                captured = true;
-                _winner = BLACK;
-            }
-            if (get(to.between(sq)) == _turn.opponent() && (get(to) == _turn)
-                    && get(sq) == _turn && to.between(sq) != ETHRONE
-                    && to.between(sq) != WTHRONE && to.between(sq) != NTHRONE
-                    && to.between(sq) != STHRONE) {
-                revPut(EMPTY, to.between(sq));
-                captured = true;
-                toremove.add(sq);
-            }
-            if (get(to.between(sq)) == BLACK && (get(to) == WHITE
-                    || get(to) == KING) && (get(sq) == WHITE)
-                    || get(sq) == KING && get(to) == WHITE) {
-                revPut(EMPTY, to.between(sq));
-                captured = true;
-                toremove.add(sq);
-            }
-        }
-        return toremove;
-    }
-
-    /**
-     * Capture the piece between SQ0 and SQ2, assuming a piece just moved to
-     * SQ0 and the necessary conditions are satisfied.
-     * // FIXME
+     * Enlarge the undo record arrays to hold N records.
      */
-    private void capture(Square sq0, Square sq2) {
-        Piece p0 = get(sq0.col(), sq0.row());
-        Piece p2 = get(sq2.col(), sq2.row());
-        Square next = sq0.between(sq2);
-        Piece bet = get(next.col(), next.row());
-        Square sqthrone = THRONE;
-        Piece pthrone = get(THRONE);
-        if (pthrone == KING) {
-            if (get(NTHRONE) == BLACK && get(STHRONE) == BLACK
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == BLACK) {
-                revPut(EMPTY, kingPosition());
-                captured = true;
-                _winner = BLACK;
-            }
-        }
-        if (p0 == _turn && p2 == _turn && bet == _turn.opponent()) {
-            revPut(EMPTY, next);
-            captured = true;
-        }
-        if (get(THRONE) == EMPTY) {
-            pthrone = _turn;
-            if (get(sqthrone.between(sq2)) == _turn.opponent()) {
-                revPut(EMPTY, sqthrone.between(sq2));
-                captured = true;
-            }
-            if (get(NTHRONE) != KING && get(STHRONE) != KING
-                    && get(ETHRONE) != KING && get(WTHRONE) != KING) {
-                if (get(sq0.between(sq2)) == KING
-                        && p0 == BLACK && p2 == BLACK) {
-                    revPut(EMPTY, kingPosition());
-                    captured = true;
-                    _winner = BLACK;
-                }
-            }
-        }
+    private void growUndo(int n) {
+        _undoMove = Arrays.copyOf(_undoMove, n);
+        _undoState = Arrays.copyOf(_undoState, n);
+        _undoHash = Arrays.copyOf(_undoHash, n);
+        _undoCaptureStart = Arrays.copyOf(_undoCaptureStart, n);
     }
 
     /**
-     * Undo one move.  Has no effect on the initial board.
-     * // FIXME
+     * Undo one move.  Has no effect on the initial board, or if there is
+     * no undo record (for example, after clearUndo()).
      */
     void undo() {
-        if (_moveCount > 0) {
+        if (_moveCount > 0 && _undoTop > 0) {
             undoPosition();
             _moveCount--;
         }
     }
 
     /**
-     * Remove record of current position in the set of positions encountered,
-     * unless it is a repeated position or we are at the first move.
-     * // FIXME
+     * Restore the position, turn, winner, and repetition status saved in
+     * the last undo record, and remove the current position from the
+     * history of positions encountered.
      */
     private void undoPosition() {
-        if (!_repeated || _moveCount > 2) {
-            if (captured) {
-                Piece p = _allPiece.pop();
-                Square sq = _allSquare.pop();
-                put(p, sq);
-                captured = false;
-            }
-            Move undid = _allMoves.pop();
-            Square sq = undid.from();
-            Piece p = _board[undid.to().col()][undid.to().row()];
-            put(p, sq);
-            put(EMPTY, undid.to());
+        _undoTop -= 1;
+        int k = _undoTop;
+        int start = _undoCaptureStart[k];
+        while (_captureTop > start) {
+            _captureTop -= 1;
+            int c = _undoCaptures[_captureTop];
+            put(PIECES[c & PIECE_MASK], sq(c >>> PIECE_BITS));
+        }
+        int move = _undoMove[k];
+        Piece moved = PIECES[move >>> MOVE_BITS];
+        if (moved != EMPTY) {
+            int code = move & ((1 << MOVE_BITS) - 1);
+            put(EMPTY, sq(Move.to(code)));
+            put(moved, sq(Move.from(code)));
         }
+        int state = _undoState[k];
+        int winner = (state >>> PIECE_BITS) & PIECE_MASK;
+        _turn = PIECES[state & PIECE_MASK];
+        _winner = winner == 0 ? null : PIECES[winner - 1];
+        _repeated = (state >>> (2 * PIECE_BITS)) != 0;
+        _hash = _undoHash[k];
+        if (moved != EMPTY && _historySize > 1) {
+            _historySize -= 1;
+        }
+    }
+
+    /**
+     * Make SIDE the side to move, with no winner, and clear the undo stack
+     * as for clearUndo().  For setting up positions piece by piece with
+     * put().
+     */
+    void setTurn(Piece side) {
+        _hash ^= Zobrist.turnKey(_turn) ^ Zobrist.turnKey(side);
+        _turn = side;
+        _winner = null;
         _repeated = false;
+        clearUndo();
     }
 
     /**
      * Clear the undo stack and board-position counts. Does not modify the
      * current position or win status.
-     * // FIXME
      */
     void clearUndo() {
-        _allMoves.clear();
-        _allSquare.clear();
-        _allPiece.clear();
+        _undoTop = _captureTop = 0;
+        _history[0] = _hash;
+        _historySize = 1;
     }
 
     /**
      * Return a new mutable list of all legal moves on the current board for
      * SIDE (ignoring whose turn it is at the moment).
-     * // return null;  // FIXME
      */
     List<Move> legalMoves(Piece side) {
-        List<Move> lst = new ArrayList();
-        HashSet<Square> squares = pieceLocations(side);
-        for (Square s : squares) {
-            for (int y = 0; y < SIZE; y++) {
-                for (int x = 0; x < SIZE; x++) {
-                    if (isLegal(s, sq(y, s.row()))) {
-                        lst.add(mv(s, sq(y, s.row())));
+        int[] moves = new int[MAX_MOVES];
+        int n = legalMoves(side, moves, 0);
+        List<Move> lst = new ArrayList<>(n);
+        for (int k = 0; k < n; k += 1) {
+            lst.add(Move.mv(moves[k]));
+        }
+        return lst;
+    }
+
+    /**
+     * Store the legal moves on the current board for SIDE (ignoring whose
+     * turn it is), encoded as for Move.code, into MOVES starting at index
+     * START, and return the number stored.  MOVES must have room for
+     * MAX_MOVES entries after START.  Walks each ray of Move.ROOK_MOVES out
+     * from each of SIDE's pieces (taken from the piece lists) up to the
+     * first blocker.  Does not
+     * allocate or change the position.
+     */
+    int legalMoves(Piece side, int[] moves, int start) {
+        return legalMoves(side, ~0L, HI_MASK, moves, start);
+    }
+
+    /**
+     * Store the legal moves on the current board for SIDE (ignoring whose
+     * turn it is) that end on a square in the mask LO, HI into MOVES
+     * starting at index START, as for legalMoves(SIDE, MOVES, START), and
+     * return the number stored.
+     */
+    int legalMoves(Piece side, long lo, long hi, int[] moves, int start) {
+        int n = start;
+        int[] list = _pieceSquares[side.ordinal()];
+        int size = _pieceCount[side.ordinal()];
+        int kings = side == WHITE ? _pieceCount[KING.ordinal()] : 0;
+        for (int j = 0; j < size + kings; j += 1) {
+            boolean king = j >= size;
+            int from = king ? _pieceSquares[KING.ordinal()][j - size] : list[j];
+            for (int d = 0; d < 4; d += 1) {
+                MoveList ray = Move.ROOK_MOVES[from][d];
+                for (int k = 0, len = ray.size(); k < len; k += 1) {
+                    int to = ray.get(k).to().index();
+                    if (_board[to] != EMPTY) {
+                        break;
                     }
-                    if (isLegal(s, sq(s.col(), x))) {
-                        lst.add(mv(s, sq(s.col(), x)));
+                    if ((king || to != THRONE_INDEX)
+                        && contains(lo, hi, to)) {
+                        moves[n] = Move.code(from, to);
+                        n += 1;
                     }
                 }
             }
         }
-        if (lst.size() == 0) {
-            _winner = _turn.opponent();
+        return n - start;
+    }
+
+    /**
+     * Return the number of legal moves on the current board for SIDE
+     * (ignoring whose turn it is), stopping once LIMIT have been found.
+     */
+    int countMoves(Piece side, int limit) {
+        int n = 0;
+        int[] list = _pieceSquares[side.ordinal()];
+        int size = _pieceCount[side.ordinal()];
+        int kings = side == WHITE ? _pieceCount[KING.ordinal()] : 0;
+        for (int j = 0; j < size + kings && n < limit; j += 1) {
+            boolean king = j >= size;
+            int from = king ? _pieceSquares[KING.ordinal()][j - size] : list[j];
+            for (int d = 0; d < 4 && n < limit; d += 1) {
+                MoveList ray = Move.ROOK_MOVES[from][d];
+                for (int k = 0, len = ray.size(); k < len; k += 1) {
+                    int to = ray.get(k).to().index();
+                    if (_board[to] != EMPTY) {
+                        break;
+                    }
+                    if (king || to != THRONE_INDEX) {
+                        n += 1;
+                    }
+                }
+            }
         }
-        return lst;
+        return Math.min(n, limit);
     }
 
     /**
-     * Return true iff SIDE has a legal move.
-     * // FIXME
+     * Return the number of legal moves on the current board for SIDE
+     * (ignoring whose turn it is).
+     */
+    int countMoves(Piece side) {
+        return countMoves(side, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return true iff SIDE has a legal move.  Stops at the first one found.
      */
     boolean hasMove(Piece side) {
-        if (legalMoves(side).size() == 0) {
+        return countMoves(side, 1) > 0;
+    }
+
+    /**
+     * Store the legal moves on the current board for SIDE (ignoring whose
+     * turn it is) that capture at least one piece into MOVES starting at
+     * index START, as for legalMoves, and return the number stored.  Only
+     * moves to empty squares next to an opposing piece are considered.
+     */
+    int captureMoves(Piece side, int[] moves, int start) {
+        long enemyLo, enemyHi;
+        if (side == BLACK) {
+            enemyLo = _whiteLo | _kingLo;
+            enemyHi = _whiteHi | _kingHi;
+        } else {
+            enemyLo = _blackLo;
+            enemyHi = _blackHi;
+        }
+        long lo = 0, hi = 0;
+        for (int d = 0; d < 4; d += 1) {
+            lo |= shiftLo(enemyLo, enemyHi, d);
+            hi |= shiftHi(enemyLo, enemyHi, d);
+        }
+        int n = legalMoves(side, lo, hi, moves, start);
+        int k = start;
+        for (int j = start; j < start + n; j += 1) {
+            if (isCapture(moves[j])) {
+                moves[k] = moves[j];
+                k += 1;
+            }
+        }
+        return k - start;
+    }
+
+    /**
+     * Return true iff the legal move MOVE (encoded as for Move.code) would
+     * capture the king.
+     */
+    boolean capturesKing(int move) {
+        int from = Move.from(move), to = Move.to(move);
+        int dirs = captureDirections(from, to, _board[from].side());
+        for (int d = 0; dirs != 0; d += 1, dirs >>>= 1) {
+            if ((dirs & 1) != 0 && _board[NEIGHBOR[to][d]] == KING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return a static estimate of the material won by the legal move MOVE
+     * (encoded as for Move.code), in pieces: the number it captures, less
+     * 1 if the opponent could then capture the moved piece with one move.
+     * Capturing the king counts as KING_EXCHANGE, and letting it be
+     * captured as -KING_EXCHANGE.  Like the static exchange evaluation of
+     * chess programs, this looks no further than that one reply, and only
+     * at the moved piece; it does not change the position.  The capture
+     * rules are those of captureDirections, applied to the occupancy
+     * after the move.
+     */
+    int exchange(int move) {
+        int from = Move.from(move), to = Move.to(move);
+        Piece moved = _board[from], side = moved.side();
+        int dirs = captureDirections(from, to, side);
+        long takenLo = 0, takenHi = 0;
+        for (int d = 0; d < 4; d += 1) {
+            if ((dirs & 1 << d) != 0) {
+                int victim = NEIGHBOR[to][d];
+                if (_board[victim] == KING) {
+                    return KING_EXCHANGE;
+                }
+                takenLo |= lo(victim);
+                takenHi |= hi(victim);
+            }
+        }
+        long occLo = (occupiedLo() & ~lo(from) & ~takenLo) | lo(to),
+            occHi = (occupiedHi() & ~hi(from) & ~takenHi) | hi(to);
+        long blackLo = _blackLo & ~takenLo, blackHi = _blackHi & ~takenHi;
+        if (side == BLACK) {
+            blackLo = (blackLo & ~lo(from)) | lo(to);
+            blackHi = (blackHi & ~hi(from)) | hi(to);
+        }
+        long enemyLo = side == BLACK ? occLo & ~blackLo : blackLo,
+            enemyHi = side == BLACK ? occHi & ~blackHi : blackHi;
+        int taken = Integer.bitCount(dirs);
+        if (isExposed(moved, to, occLo, occHi, enemyLo, enemyHi)) {
+            return moved == KING ? -KING_EXCHANGE : taken - 1;
+        }
+        return taken;
+    }
+
+    /**
+     * Return true iff the piece MOVED, just moved to square index TO,
+     * could be captured by one move of the opponent, whose pieces are on
+     * the squares in ENEMYLO, ENEMYHI, when the occupied squares are
+     * those in OCCLO, OCCHI.
+     */
+    private boolean isExposed(Piece moved, int to, long occLo, long occHi,
+                              long enemyLo, long enemyHi) {
+        long guardLo = KING_GUARD_LO[to], guardHi = KING_GUARD_HI[to];
+        if (moved == KING && (guardLo | guardHi) != 0) {
+            long openLo = guardLo & ~enemyLo, openHi = guardHi & ~enemyHi;
+            if (count(openLo, openHi) != 1 || (openLo & occLo) != 0
+                || (openHi & occHi) != 0) {
+                return false;
+            }
+            int open = openLo != 0 ? Long.numberOfTrailingZeros(openLo)
+                : LO_BITS + Long.numberOfTrailingZeros(openHi);
+            for (int e = 0; e < 4; e += 1) {
+                int from = nearestPiece(open, e, occLo, occHi);
+                if (from >= 0 && contains(enemyLo, enemyHi, from)) {
+                    return true;
+                }
+            }
             return false;
         }
-        return true;
+        for (int d = 0; d < 4; d += 1) {
+            int n = NEIGHBOR[to][d], b = NEIGHBOR[to][d ^ 2];
+            if (n < 0 || b < 0 || contains(occLo, occHi, n)) {
+                continue;
+            }
+            boolean flanked = contains(enemyLo, enemyHi, b);
+            if (!flanked && b != THRONE_INDEX) {
+                continue;
+            }
+            for (int e = 0; e < 4; e += 1) {
+                int from = e == (d ^ 2) ? -1
+                    : nearestPiece(n, e, occLo, occHi);
+                if (from < 0 || !contains(enemyLo, enemyHi, from)
+                    || (n == THRONE_INDEX && _board[from] != KING)) {
+                    continue;
+                }
+                if (flanked || isHostileThrone(moved, from, n, occLo, occHi,
+                                               enemyLo, enemyHi)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return true iff the throne would be hostile to the piece MOVED
+     * beside it once an enemy piece moves from square index FROM to
+     * square index TO, where the occupied squares and the enemy's pieces
+     * are as in isExposed.
+     */
+    private boolean isHostileThrone(Piece moved, int from, int to,
+                                    long occLo, long occHi,
+                                    long enemyLo, long enemyHi) {
+        if (!contains(occLo, occHi, THRONE_INDEX)) {
+            return true;
+        }
+        if (moved.side() != WHITE || _board[THRONE_INDEX] != KING) {
+            return false;
+        }
+        long blackLo = (enemyLo & ~lo(from)) | lo(to),
+            blackHi = (enemyHi & ~hi(from)) | hi(to);
+        return count(blackLo & NEAR_THRONE_LO, blackHi & NEAR_THRONE_HI) >= 3;
+    }
+
+    /**
+     * Return the LO word of the set of SIDE's pieces (for WHITE, including
+     * the king) that the opponent could capture with one move, whoever is
+     * to move.  This is part of a threat map that put() marks stale
+     * around each square it changes (see BitBoard.BAND_LO): a piece's
+     * threats depend only on the squares next to it and on the lines
+     * through those squares, all of which lie in the band of rows and
+     * columns around the piece.  Only stale pieces are reexamined, and
+     * only those that are asked for.
+     */
+    long enPriseLo(Piece side) {
+        refreshThreats(side);
+        return _enPriseLo & (side == BLACK ? _blackLo : _whiteLo | _kingLo);
+    }
+
+    /**
+     * Return the HI word of the set of SIDE's pieces that the opponent
+     * could capture with one move (see enPriseLo).
+     */
+    long enPriseHi(Piece side) {
+        refreshThreats(side);
+        return _enPriseHi & (side == BLACK ? _blackHi : _whiteHi | _kingHi);
+    }
+
+    /**
+     * Return the LO word of the set of squares to which black could move
+     * to capture the king, whoever is to move (see enPriseLo).
+     */
+    long kingAttackLo() {
+        refreshThreats(KING);
+        return _kingAttackLo;
+    }
+
+    /**
+     * Return the HI word of the set of squares to which black could move
+     * to capture the king (see kingAttackLo).
+     */
+    long kingAttackHi() {
+        refreshThreats(KING);
+        return _kingAttackHi;
+    }
+
+    /**
+     * Bring the threat map up to date on the stale squares holding P:
+     * the king if P is KING, and otherwise all the pieces of side P.
+     */
+    private void refreshThreats(Piece p) {
+        long lo = _staleLo, hi = _staleHi;
+        switch (p) {
+        case KING:
+            lo &= _kingLo;
+            hi &= _kingHi;
+            break;
+        case WHITE:
+            lo &= _whiteLo | _kingLo;
+            hi &= _whiteHi | _kingHi;
+            break;
+        default:
+            lo &= _blackLo;
+            hi &= _blackHi;
+            break;
+        }
+        if (p == KING && (_kingLo | _kingHi) == 0) {
+            _kingAttackLo = _kingAttackHi = 0;
+        }
+        if ((lo | hi) == 0) {
+            return;
+        }
+        _staleLo &= ~lo;
+        _staleHi &= ~hi;
+        _enPriseLo &= ~lo;
+        _enPriseHi &= ~hi;
+        int king = kingIndex();
+        for (; lo != 0; lo &= lo - 1) {
+            refreshThreats(Long.numberOfTrailingZeros(lo), king);
+        }
+        for (; hi != 0; hi &= hi - 1) {
+            refreshThreats(LO_BITS + Long.numberOfTrailingZeros(hi), king);
+        }
+    }
+
+    /**
+     * Recompute the threat map's entries for the piece on square index
+     * I, where the king is on square index KING (or -1 if it is not on
+     * the board).  A piece other than the king can only be captured from
+     * a neighboring square opposite an enemy piece or the throne.
+     */
+    private void refreshThreats(int i, int king) {
+        long attackLo = 0, attackHi = 0;
+        Piece enemy = _board[i].side().opponent();
+        for (int d = 0; d < 4; d += 1) {
+            int to = NEIGHBOR[i][d];
+            if (to < 0 || _board[to] != EMPTY) {
+                continue;
+            }
+            int beyond = NEIGHBOR[i][d ^ 2];
+            boolean flanked = beyond >= 0 && _board[beyond].side() == enemy;
+            if (i != king && !flanked && beyond != THRONE_INDEX) {
+                continue;
+            }
+            if (isThreat(to, d ^ 2, i != king && flanked)) {
+                attackLo |= lo(to);
+                attackHi |= hi(to);
+                if (i != king) {
+                    break;
+                }
+            }
+        }
+        if ((attackLo | attackHi) != 0) {
+            _enPriseLo |= lo(i);
+            _enPriseHi |= hi(i);
+        }
+        if (i == king) {
+            _kingAttackLo = attackLo;
+            _kingAttackHi = attackHi;
+        }
+    }
+
+    /**
+     * Return true iff the opponent of the piece next to empty square index
+     * TO in direction D could capture that piece by moving to TO.  The
+     * candidate movers are the nearest pieces to TO in the other
+     * directions.  If FLANKED, the piece is known to be taken by any
+     * enemy piece on TO; otherwise each mover is checked with the capture
+     * rules of captureDirections.
+     */
+    private boolean isThreat(int to, int d, boolean flanked) {
+        Piece enemy = _board[NEIGHBOR[to][d]].side().opponent();
+        for (int e = 0; e < 4; e += 1) {
+            int from = e == d ? -1 : nearestPiece(to, e);
+            if (from < 0 || _board[from].side() != enemy
+                || (to == THRONE_INDEX && _board[from] != KING)) {
+                continue;
+            }
+            if (flanked
+                || (captureDirections(from, to, enemy) & 1 << d) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the index of the nearest occupied square to square index I
+     * in direction D (as for Square.rookMove), or -1 if there is none,
+     * from the occupancy of its row or column.
+     */
+    private int nearestPiece(int i, int d) {
+        int col = i % SIZE, row = i / SIZE, beyond;
+        switch (d) {
+        case 0:
+            beyond = _colOccupancy[col] >>> (row + 1);
+            return beyond == 0 ? -1
+                : i + SIZE * (1 + Integer.numberOfTrailingZeros(beyond));
+        case 1:
+            beyond = _rowOccupancy[row] >>> (col + 1);
+            return beyond == 0 ? -1
+                : i + 1 + Integer.numberOfTrailingZeros(beyond);
+        case 2:
+            beyond = _colOccupancy[col] & ((1 << row) - 1);
+            return beyond == 0 ? -1
+                : (31 - Integer.numberOfLeadingZeros(beyond)) * SIZE + col;
+        default:
+            beyond = _rowOccupancy[row] & ((1 << col) - 1);
+            return beyond == 0 ? -1
+                : row * SIZE + 31 - Integer.numberOfLeadingZeros(beyond);
+        }
+    }
+
+    /**
+     * Return the index of the nearest square to square index I in
+     * direction D that is in OCCLO, OCCHI, or -1 if there is none.
+     */
+    private static int nearestPiece(int i, int d, long occLo, long occHi) {
+        for (int n = NEIGHBOR[i][d]; n >= 0; n = NEIGHBOR[n][d]) {
+            if (contains(occLo, occHi, n)) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the LO word of the set of squares on the king's open paths
+     * to the corners: for each corner the king could move to at once, the
+     * squares it would pass through and the corner itself.
+     */
+    long kingPathsLo() {
+        if (_kingPathsStale) {
+            findKingPaths();
+        }
+        return _kingPathsLo;
+    }
+
+    /**
+     * Return the HI word of the set of squares on the king's open paths
+     * to the corners, as for kingPathsLo().
+     */
+    long kingPathsHi() {
+        if (_kingPathsStale) {
+            findKingPaths();
+        }
+        return _kingPathsHi;
+    }
+
+    /**
+     * Set _kingPathsLo and _kingPathsHi to both words of the king's open
+     * paths to the corners (see kingPathsLo) in one pass over the
+     * corners.
+     */
+    private void findKingPaths() {
+        int k = kingIndex();
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        long resultLo = 0, resultHi = 0;
+        for (int c = 0; k >= 0 && c < CORNER_INDICES.length; c += 1) {
+            int corner = CORNER_INDICES[c];
+            long pathLo = PATH_LO[k][corner], pathHi = PATH_HI[k][corner];
+            if ((pathLo | pathHi) != 0 && (pathLo & occLo) == 0
+                && (pathHi & occHi) == 0) {
+                resultLo |= pathLo;
+                resultHi |= pathHi;
+            }
+        }
+        _kingPathsLo = resultLo;
+        _kingPathsHi = resultHi;
+        _kingPathsStale = false;
     }
 
     @Override
@@ -651,20 +1492,43 @@ class Board {
     }
 
     /**
-     * Return the locations of all pieces on SIDE.
-     * // return null; // FIXME
+     * Return the locations of all pieces of type SIDE (for WHITE, not
+     * including the king) as an unmodifiable view that tracks the board.
+     * Does not allocate.
      */
-    HashSet<Square> pieceLocations(Piece side) {
+    List<Square> pieceLocations(Piece side) {
         assert side != EMPTY;
-        HashSet<Square> result = new HashSet<>();
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                if (side == _board[y][x]) {
-                    result.add(sq(y, x));
-                }
+        return _pieceViews[side.ordinal()];
+    }
+
+    /**
+     * An unmodifiable view of the piece list for one kind of Piece.
+     */
+    private class PieceView extends AbstractList<Square> {
+        /**
+         * A view of the squares holding the Piece with ordinal ORD.
+         */
+        PieceView(int ord) {
+            _ord = ord;
+        }
+
+        @Override
+        public Square get(int k) {
+            if (k < 0 || k >= size()) {
+                throw new IndexOutOfBoundsException();
             }
+            return sq(_pieceSquares[_ord][k]);
+        }
+
+        @Override
+        public int size() {
+            return _pieceCount[_ord];
         }
-        return result;
+
+        /**
+         * Ordinal of the Piece I view.
+         */
+        private final int _ord;
     }
 
     /**
@@ -699,9 +1563,16 @@ class Board {
     private boolean _repeated;
 
     /**
-     * A 2D array of Piece to represent the board.
+     * The contents of each square, indexed by Square.index().  Kept in
+     * step with the occupancy masks below.
+     */
+    private final Piece[] _board = new Piece[NUM_SQUARES];
+
+    /**
+     * Occupancy masks (see BitBoard) of the black pieces, the white pieces
+     * other than the king, and the king.
      */
-    private Piece[][] _board;
+    private long _blackLo, _blackHi, _whiteLo, _whiteHi, _kingLo, _kingHi;
 
     /**
      * The limit of moves a player makes.
@@ -709,33 +1580,126 @@ class Board {
     private int _moveLimit;
 
     /**
-     * A Stack of all the pieces that has moved.
+     * Undo records, one per move made and not yet undone, in parallel
+     * arrays whose first _undoTop entries are valid.  _undoMove packs the
+     * code of the move (see Move.code) and above it the ordinal of the
+     * moved piece.  _undoState packs the ordinal of the prior turn, one
+     * more than the ordinal of the prior winner (0 for none), and the
+     * prior repetition flag.  _undoHash is the prior hash, and
+     * _undoCaptureStart is the value of _captureTop when the move began.
+     */
+    private int[] _undoMove = new int[INITIAL_UNDO],
+        _undoState = new int[INITIAL_UNDO],
+        _undoCaptureStart = new int[INITIAL_UNDO];
+
+    /**
+     * Prior hashes for the undo records (see _undoMove).
+     */
+    private long[] _undoHash = new long[INITIAL_UNDO];
+
+    /**
+     * Number of valid undo records.
+     */
+    private int _undoTop;
+
+    /**
+     * Stack of squares changed by revPut() during moves that have not been
+     * undone, each packed as (square index << PIECE_BITS) | ordinal of
+     * the previous contents.  The first _captureTop entries are valid.
+     */
+    private int[] _undoCaptures = new int[4 * INITIAL_UNDO];
+
+    /**
+     * Number of valid entries in _undoCaptures.
+     */
+    private int _captureTop;
+
+    /**
+     * _pieceSquares[o][0 .. _pieceCount[o]-1] are the indices of the
+     * squares holding the Piece with ordinal O.  Updated in O(1) by put(),
+     * so also by revPut() and undo().
+     */
+    private final int[][] _pieceSquares =
+        new int[PIECES.length][NUM_SQUARES];
+
+    /**
+     * Lengths of the lists in _pieceSquares.
+     */
+    private final int[] _pieceCount = new int[PIECES.length];
+
+    /**
+     * _pieceIndex[i] is the position of square index I in the list for
+     * the piece on it, if any.
+     */
+    private final int[] _pieceIndex = new int[NUM_SQUARES];
+
+    /**
+     * Views returned by pieceLocations, indexed by Piece ordinal.
+     */
+    private final PieceView[] _pieceViews = {
+        new PieceView(0), new PieceView(1), new PieceView(2),
+        new PieceView(3)
+    };
+
+    /**
+     * Zobrist hash of the current position, updated by put() and by
+     * changes of turn.
+     */
+    private long _hash;
+
+    /**
+     * Hashes of the positions since the initial position (or the last
+     * clearUndo()), oldest first, along the game and any search path.
+     * The first _historySize entries are valid.
+     */
+    private long[] _history = new long[INITIAL_HISTORY];
+
+    /**
+     * Number of valid entries in _history.
+     */
+    private int _historySize;
+
+    /**
+     * Told of each piece added or removed, or null.
+     */
+    private BoardListener _listener;
+
+    /**
+     * _rowOccupancy[r] is the set of occupied columns of row R, and
+     * _colOccupancy[c] the set of occupied rows of column C, as bits 0 to
+     * SIZE - 1.  Updated by put().
      */
-    private Stack<Piece> _allPiece;
+    private final int[] _rowOccupancy = new int[SIZE],
+        _colOccupancy = new int[SIZE];
 
     /**
-     * A Stack of all the sqaure the pieces has moved to;
-     * corresponds the piece in _allPiece.
+     * Scratch space for findExits.
      */
-    private Stack<Square> _allSquare;
+    private final int[] _exits = new int[4];
 
     /**
-     * Stack of all the moves made on the board.
+     * The threat map (see enPriseLo): the pieces that their opponent
+     * could capture with one move, and the squares to which black could
+     * move to capture the king.  Up to date except on the squares in
+     * _staleLo, _staleHi.
      */
-    private Stack<Move> _allMoves;
+    private long _enPriseLo, _enPriseHi, _kingAttackLo, _kingAttackHi;
 
     /**
-     * String to see if repeat.
+     * The squares whose entries in the threat map may be out of date:
+     * those near the squares changed by put() since the last
+     * refreshThreats().
      */
-    private String repeat;
+    private long _staleLo, _staleHi;
 
     /**
-     * Hashset of encoded version of board.
+     * The king's open paths to the corners (see kingPathsLo), valid
+     * unless _kingPathsStale, which put() sets.
      */
-    private HashSet<String> encoded;
+    private long _kingPathsLo, _kingPathsHi;
 
     /**
-     * true or false if capture.
+     * True iff _kingPathsLo and _kingPathsHi may be out of date.
      */
-    private boolean captured;
+    private boolean _kingPathsStale = true;
 }
@@ -0,0 +1,22 @@
+package tablut;
+
+/** An object that follows the pieces on a Board (see Board.setListener),
+ *  so as to keep quantities derived from the position up to date as
+ *  moves are made and undone.
+ *  @author Jeremy Ahn
+ */
+interface BoardListener {
+
+    /** Note that P has just been placed on square index I of BOARD.
+     *  BOARD's other squares are up to date; square I may not be. */
+    void pieceAdded(Board board, Piece p, int i);
+
+    /** Note that P has just been removed from square index I of BOARD.
+     *  BOARD's other squares are up to date; square I may not be. */
+    void pieceRemoved(Board board, Piece p, int i);
+
+    /** Note that BOARD's whole position has just been replaced, as by
+     *  Board.init or Board.copy. */
+    void positionSet(Board board);
+
+}
@@ -1,8 +1,11 @@
 package tablut;
 
 import java.io.PrintStream;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.function.Consumer;
@@ -50,11 +53,7 @@ final class Controller {
             _view.update(this);
             String command;
             if (_winner == null) {
-                if (_board.turn() == WHITE) {
-                    command = _white.myMove();
-                } else {
-                    command = _black.myMove();
-                }
+                command = awaitMove(_board.turn() == WHITE ? _white : _black);
             } else {
                 command = _nonPlayer.myMove();
                 if (command == null) {
@@ -70,11 +69,41 @@ final class Controller {
                 }
             }
         }
+        _white.stop();
+        _black.stop();
         if (_logFile != null) {
             _logFile.close();
         }
     }
 
+    /** Return the move or other command chosen by PLAYER, which is to
+     *  move, after waiting for it as necessary. */
+    private String awaitMove(Player player) {
+        _thinking = player;
+        try {
+            Future<String> command = player.startMove();
+            return command.get();
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted waiting for move");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalStateException(excp.getCause());
+        } finally {
+            _thinking = null;
+        }
+    }
+
+    /** Ask the player I am waiting for, if any, to move now, making the
+     *  best move it has found so far.  May be called from any thread. */
+    void moveNow() {
+        Player player = _thinking;
+        if (player != null) {
+            player.moveNow();
+        }
+    }
+
     /** Return the current board.  The value returned should not be
      *  modified. */
     Board board() {
@@ -136,6 +165,13 @@ final class Controller {
         _reporter.reportMove(move);
     }
 
+    /** Report progress of a search by calling reportSearch(DEPTH, VALUE,
+     *  LINE, NODESPERSECOND) on my reporter. */
+    void reportSearch(int depth, int value, List<Move> line,
+                      long nodesPerSecond) {
+        _reporter.reportSearch(depth, value, line, nodesPerSecond);
+    }
+
     /** Print a comment in the log.  The arguments FORMAT and ARGS are
      *  as for String.format. */
     void logComment(String format, Object... args) {
@@ -215,9 +251,11 @@ final class Controller {
     private void doManual(Matcher color) {
         switch (color.group(1)) {
         case "black":
+            _black.stop();
             _black = _manualPlayerTemplate.create(BLACK, this);
             break;
         case "white":
+            _white.stop();
             _white = _manualPlayerTemplate.create(WHITE, this);
             break;
         default:
@@ -230,9 +268,11 @@ final class Controller {
     private void doAuto(Matcher color) {
         switch (color.group(1)) {
         case "black":
+            _black.stop();
             _black = _autoPlayerTemplate.create(BLACK, this);
             break;
         case "white":
+            _white.stop();
             _white = _autoPlayerTemplate.create(WHITE, this);
             break;
         default:
@@ -287,6 +327,8 @@ final class Controller {
         if (_winner == null) {
             _winner = _board.winner();
             if (_winner != null) {
+                _white.stop();
+                _black.stop();
                 _view.update(this);
                 _reporter.reportNote("%s wins.", _winner.toName());
             }
@@ -338,6 +380,9 @@ final class Controller {
      *  game is in progress. */
     private Player _nonPlayer;
 
+    /** The player whose move I am waiting for, or null. */
+    private volatile Player _thinking;
+
     /** The current templates for manual and automated players. */
     private Player _autoPlayerTemplate, _manualPlayerTemplate;
 
@@ -0,0 +1,237 @@
+package tablut;
+
+import java.util.Arrays;
+
+import static java.lang.Math.*;
+
+import static tablut.Piece.*;
+import static tablut.Square.NUM_SQUARES;
+import static tablut.Square.SIZE;
+import static tablut.Board.NEIGHBOR;
+
+/** The heuristic value of the position on a Board, computed in stages
+ *  from cheap to costly.  The first stage is kept up to date as pieces
+ *  are added and removed (see BoardListener), so that it costs a few
+ *  operations rather than a scan of the board.  It is the sum of the
+ *  values of the pieces on their squares (SQUARE_VALUES, which include
+ *  material), less a penalty for each black piece next to the king.  The
+ *  second stage adds the king's freedom: the squares it can move to,
+ *  and how few moves would take it to a corner (Board.cornerDistance),
+ *  both found by table lookups on the occupancy of the king's lines and
+ *  of the edges.  The third adds each
+ *  side's mobility, and a bonus to the side to move if it can capture
+ *  (see Board.enPriseLo).  When the value is only needed relative to a window
+ *  (see score(Board, int, int)), the later stages are skipped once the
+ *  most they could add cannot bring the value into the window.  Each
+ *  Board needs an Evaluator of its own.
+ *  @author Jeremy Ahn
+ */
+final class Evaluator implements BoardListener {
+
+    /** Number of stages of the evaluation. */
+    static final int STAGES = 3;
+
+    /** Penalty to white for each square between the king and the edge. */
+    static final int EDGE_VALUE = 50;
+
+    /** Penalty to white for each black piece next to the king. */
+    static final int SURROUND_VALUE = 75;
+
+    /** Bonus to white for each square the king can move to. */
+    static final int FREEDOM_VALUE = 4;
+
+    /** ROUTE_VALUES[d] is the bonus to white when the king is D moves
+     *  from a corner (see Board.cornerDistance). */
+    private static final int[] ROUTE_VALUES = { 0, 160, 80, 25, 0 };
+
+    /** Bonus to each side for each of its legal moves, of which at most
+     *  MOBILITY_LIMIT count. */
+    static final int MOBILITY_VALUE = 1, MOBILITY_LIMIT = 64;
+
+    /** Bonus to the side to move when it can capture a piece. */
+    static final int THREAT_VALUE = Search.PIECE_VALUE / 4;
+
+    /** Most that the second stage can add (it never subtracts): the king
+     *  can reach at most 2 * (SIZE - 1) squares. */
+    private static final int KING_MARGIN =
+        2 * (SIZE - 1) * FREEDOM_VALUE + ROUTE_VALUES[1];
+
+    /** Most that the third stage can add or subtract. */
+    private static final int TACTICS_MARGIN =
+        MOBILITY_VALUE * MOBILITY_LIMIT + THREAT_VALUE;
+
+    /** SQUARE_VALUES[p][i] is the value to white of a piece P (by
+     *  ordinal) on square index I, including its material. */
+    private static final int[][] SQUARE_VALUES =
+        new int[Piece.values().length][NUM_SQUARES];
+
+    static {
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            int col = i % SIZE, row = i / SIZE;
+            int toedge = min(min(row, SIZE - 1 - row),
+                             min(col, SIZE - 1 - col));
+            SQUARE_VALUES[KING.ordinal()][i] = -EDGE_VALUE * toedge;
+            SQUARE_VALUES[WHITE.ordinal()][i] = Search.PIECE_VALUE;
+            SQUARE_VALUES[BLACK.ordinal()][i] = -Search.PIECE_VALUE;
+        }
+    }
+
+    /** Return the heuristic value of the position on BOARD, which has no
+     *  winner: positive if it favors white and negative if it favors
+     *  black. */
+    static int score(Board board) {
+        return score(board, -Search.INFTY, Search.INFTY);
+    }
+
+    /** Return the heuristic value of the position on BOARD, as for
+     *  score(BOARD), except that it need only be exact if it is strictly
+     *  between ALPHA and BETA.  Otherwise, it is a bound on the value, no
+     *  greater than ALPHA or no less than BETA respectively.  Uses BOARD's
+     *  Evaluator if it has one, and otherwise computes the value from
+     *  scratch, with all stages. */
+    static int score(Board board, int alpha, int beta) {
+        BoardListener listener = board.listener();
+        if (listener instanceof Evaluator) {
+            return ((Evaluator) listener).value(board, alpha, beta);
+        }
+        int king = board.kingIndex();
+        return squareSum(board) - SURROUND_VALUE * surround(board, king)
+            + kingFreedom(board, king) + tactics(board);
+    }
+
+    /** Return the heuristic value of the position on BOARD, which I
+     *  follow, as for the static score(BOARD, ALPHA, BETA), counting the
+     *  stages reached. */
+    int value(Board board, int alpha, int beta) {
+        _stageCounts[0] += 1;
+        int score = _squares - SURROUND_VALUE * _surround;
+        if (score + KING_MARGIN + TACTICS_MARGIN <= alpha) {
+            return score + KING_MARGIN + TACTICS_MARGIN;
+        } else if (score - TACTICS_MARGIN >= beta) {
+            return score - TACTICS_MARGIN;
+        }
+        _stageCounts[1] += 1;
+        score += kingFreedom(board, _king);
+        if (score + TACTICS_MARGIN <= alpha) {
+            return score + TACTICS_MARGIN;
+        } else if (score - TACTICS_MARGIN >= beta) {
+            return score - TACTICS_MARGIN;
+        }
+        _stageCounts[2] += 1;
+        return score + tactics(board);
+    }
+
+    /** Return the number of my evaluations that have reached stage STAGE
+     *  (0 <= STAGE < STAGES) since the last clearCounts. */
+    long stageCount(int stage) {
+        return _stageCounts[stage];
+    }
+
+    /** Reset the counts returned by stageCount to 0. */
+    void clearCounts() {
+        Arrays.fill(_stageCounts, 0);
+    }
+
+    @Override
+    public void pieceAdded(Board board, Piece p, int i) {
+        _squares += SQUARE_VALUES[p.ordinal()][i];
+        if (p == KING) {
+            _king = i;
+            _surround = surround(board, i);
+        } else if (p == BLACK && isNeighbor(i, _king)) {
+            _surround += 1;
+        }
+    }
+
+    @Override
+    public void pieceRemoved(Board board, Piece p, int i) {
+        _squares -= SQUARE_VALUES[p.ordinal()][i];
+        if (p == KING) {
+            _king = -1;
+            _surround = 0;
+        } else if (p == BLACK && isNeighbor(i, _king)) {
+            _surround -= 1;
+        }
+    }
+
+    @Override
+    public void positionSet(Board board) {
+        _squares = squareSum(board);
+        _king = board.kingIndex();
+        _surround = surround(board, _king);
+    }
+
+    /** Return the sum of SQUARE_VALUES over the pieces on BOARD. */
+    private static int squareSum(Board board) {
+        int sum = 0;
+        for (Piece p : PIECES) {
+            int[] values = SQUARE_VALUES[p.ordinal()];
+            for (int k = board.pieceCount(p) - 1; k >= 0; k -= 1) {
+                sum += values[board.pieceSquare(p, k)];
+            }
+        }
+        return sum;
+    }
+
+    /** Return the number of black pieces on BOARD next to square index
+     *  KING (0 if KING is -1). */
+    private static int surround(Board board, int king) {
+        int n = 0;
+        for (int d = 0; king >= 0 && d < 4; d += 1) {
+            int next = NEIGHBOR[king][d];
+            if (next >= 0 && board.get(Square.sq(next)) == BLACK) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return the value to white of the freedom of the king on BOARD,
+     *  which is on square index KING (or -1 if it is not on BOARD), from
+     *  the squares it can move to and its distance from the corners. */
+    private static int kingFreedom(Board board, int king) {
+        if (king < 0) {
+            return 0;
+        }
+        int reach = Integer.bitCount(board.rowReach(king))
+            + Integer.bitCount(board.columnReach(king));
+        return FREEDOM_VALUE * reach
+            + ROUTE_VALUES[board.cornerDistance()];
+    }
+
+    /** Return the value to white of the numbers of legal moves of each
+     *  side on BOARD, and of whether the side to move can capture. */
+    private static int tactics(Board board) {
+        int value = MOBILITY_VALUE * (board.countMoves(WHITE, MOBILITY_LIMIT)
+                                      - board.countMoves(BLACK,
+                                                         MOBILITY_LIMIT));
+        Piece prey = board.turn().opponent();
+        if ((board.enPriseLo(prey) | board.enPriseHi(prey)) != 0) {
+            value += prey == BLACK ? THREAT_VALUE : -THREAT_VALUE;
+        }
+        return value;
+    }
+
+    /** Return true iff square index I is next to square index KING, which
+     *  is -1 if there is no king. */
+    private static boolean isNeighbor(int i, int king) {
+        if (king < 0) {
+            return false;
+        }
+        int diff = abs(i - king);
+        return diff == SIZE || (diff == 1 && i / SIZE == king / SIZE);
+    }
+
+    /** The kinds of piece that have square values. */
+    private static final Piece[] PIECES = { WHITE, BLACK, KING };
+
+    /** Sum of SQUARE_VALUES over the pieces on my board. */
+    private int _squares;
+    /** Number of black pieces next to the king. */
+    private int _surround;
+    /** Square index of the king, or -1 if it is not on the board. */
+    private int _king = -1;
+    /** _stageCounts[s] is the number of evaluations that reached stage
+     *  S. */
+    private final long[] _stageCounts = new long[STAGES];
+}
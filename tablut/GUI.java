@@ -12,6 +12,7 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.StringWriter;
 
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 
 /** The GUI controller for a Tablut board and buttons.
@@ -34,6 +35,7 @@ class GUI extends TopLevel implements View, Reporter {
     /** A new window with given TITLE providing a view of a Tablut board. */
     GUI(String title) {
         super(title, true);
+        addMenuButton("Game->Move Now", this::moveNow);
         addMenuButton("Game->Quit", this::quit);
         _widget = new BoardWidget(_pendingCommands);
         add(_widget,
@@ -44,9 +46,22 @@ class GUI extends TopLevel implements View, Reporter {
                  new LayoutSpec("x", 0, "y", 0,
                                 "height", 1,
                                 "width", 3));
+        addLabel("", "SearchInfo",
+                 new LayoutSpec("x", 0, "y", 2,
+                                "height", 1,
+                                "width", 3));
 
     }
 
+    /** Response to "Move Now" button click: have the automated player
+     *  that is thinking move at once. */
+    private void moveNow(String dummy) {
+        Controller controller = _controller;
+        if (controller != null) {
+            controller.moveNow();
+        }
+    }
+
     /** Response to "Quit" button click. */
     private void quit(String dummy) {
         _pendingCommands.offer("quit");
@@ -71,6 +86,7 @@ class GUI extends TopLevel implements View, Reporter {
     public void update(Controller controller) {
         Board board = controller.board();
 
+        _controller = controller;
         _widget.update(board);
         if (board.winner() != null) {
             setLabel("CurrentTurn",
@@ -136,6 +152,21 @@ class GUI extends TopLevel implements View, Reporter {
     public void reportMove(Move unused) {
     }
 
+    @Override
+    public void reportSearch(int depth, int value, List<Move> line,
+                             long nodesPerSecond) {
+        StringBuilder text = new StringBuilder();
+        for (Move move : line) {
+            text.append(' ').append(move);
+        }
+        setLabel("SearchInfo",
+                 String.format("Depth %d, score %d, %d nodes/s:%s",
+                               depth, value, nodesPerSecond, text));
+    }
+
+    /** The controller of the game I display, as of my last update. */
+    private volatile Controller _controller;
+
     /** The board widget. */
     private BoardWidget _widget;
 
@@ -0,0 +1,606 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Math.*;
+
+import static tablut.Piece.*;
+import static tablut.Board.CORNER_INDICES;
+import static tablut.Board.MAX_MOVES;
+import static tablut.Board.NEIGHBOR;
+
+/** A Player that chooses moves by Monte Carlo tree search: it grows a
+ *  tree of positions from the current one, descending it by UCT (upper
+ *  confidence bounds applied to trees) selection, expanding a leaf once
+ *  it has been visited EXPAND_VISITS times, and scoring it by a random
+ *  playout to the end of the game (or to MAX_PLAYOUT plies, after which
+ *  the static evaluation decides).  Playouts prefer moves that win at
+ *  once, captures, and king moves.  Its move is the most visited one.
+ *
+ *  The tree is kept in a fixed pool of nodes held in arrays indexed by
+ *  node number, with the children of each node in consecutive entries,
+ *  so that it needs no object per node.  Several threads run playouts
+ *  at once, sharing the tree; a thread counts a visit to each node on
+ *  its way down (a "virtual loss", until its result is added on the way
+ *  back), which steers the other threads to different lines.  After
+ *  each move, the part of the tree below the opponent's reply is kept
+ *  for the next search while the pool is no more than half full.
+ *  @author Jeremy Ahn
+ */
+class MCTS extends Player {
+
+    /** Default number of nodes in the tree. */
+    static final int DEFAULT_POOL_SIZE = 1 << 20;
+
+    /** Bytes of memory per node of the tree. */
+    static final int NODE_BYTES = 6 * Integer.BYTES;
+
+    /** Visits a leaf must have before it is expanded. */
+    private static final int EXPAND_VISITS = 2;
+
+    /** Weight of the exploration term of the UCT formula. */
+    private static final double EXPLORATION = 1.0;
+
+    /** Longest playout, in plies. */
+    private static final int MAX_PLAYOUT = 80;
+
+    /** Number of random moves a playout examines at each step for a
+     *  capture or a king move. */
+    private static final int SAMPLES = 6;
+
+    /** Playouts each thread runs between checks of the limits. */
+    private static final int CHECK_INTERVAL = 64;
+
+    /** Node states: not expanded, being expanded by some thread,
+     *  expanded, and not expandable because the pool is full. */
+    private static final int UNEXPANDED = 0, EXPANDING = 1, EXPANDED = 2,
+        FULL = 3;
+
+    /** Playout results for a player, in half points. */
+    private static final int LOSS = 0, DRAW = 1, WIN = 2;
+
+    /** A new MCTS player with no piece or controller (intended to produce
+     *  a template). */
+    MCTS() {
+        this(null, null);
+    }
+
+    /** A new MCTS player playing PIECE under control of CONTROLLER. */
+    MCTS(Piece piece, Controller controller) {
+        super(piece, controller);
+        _poolSize = DEFAULT_POOL_SIZE;
+        _timeLimit = AI.DEFAULT_TIME_LIMIT;
+        _threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /** A new MCTS player playing PIECE under control of CONTROLLER, with
+     *  the settings of TEMPLATE. */
+    private MCTS(Piece piece, Controller controller, MCTS template) {
+        super(piece, controller);
+        _poolSize = template._poolSize;
+        _timeLimit = template._timeLimit;
+        _playoutLimit = template._playoutLimit;
+        _threads = template._threads;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MCTS(piece, controller, this);
+    }
+
+    @Override
+    boolean isManual() {
+        return false;
+    }
+
+    /** Use a tree of about SIZE bytes.  Takes effect for players created
+     *  from me afterwards, and for my next search. */
+    void setPoolSize(long size) {
+        _poolSize = (int) max(2 * MAX_MOVES + 1,
+                              min(size / NODE_BYTES, Integer.MAX_VALUE / 2));
+        _move = null;
+    }
+
+    /** Limit each of my searches to about MILLIS milliseconds and PLAYOUTS
+     *  playouts.  0 means no limit of that kind, but if both are 0, I use
+     *  the default time limit. */
+    void setLimits(long millis, long playouts) {
+        _timeLimit = millis == 0 && playouts == 0 ? AI.DEFAULT_TIME_LIMIT
+            : millis;
+        _playoutLimit = playouts;
+    }
+
+    /** Run playouts on THREADS threads (at least 1).  The default is the
+     *  number of available processors. */
+    void setThreads(int threads) {
+        _threads = max(1, threads);
+        shutdown();
+    }
+
+    /** Stop my worker threads, if any.  They are started again by my next
+     *  search. */
+    void shutdown() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
+    }
+
+    @Override
+    String myMove() {
+        Move move = findMove(board());
+        _controller.reportMove(move);
+        _controller.reportSearch(_line.size(), value(), _line,
+                                 _playouts.get() * 1000
+                                 / max(1, System.currentTimeMillis()
+                                       - _started));
+        return move.toString();
+    }
+
+    @Override
+    Future<String> startMove() {
+        _hurry = false;
+        return super.startMove();
+    }
+
+    @Override
+    void moveNow() {
+        _hurry = _stopRequested = true;
+    }
+
+    /** Return a move for the side to move in POSITION, which is not
+     *  changed, assuming there is a move.  Searches until a limit set by
+     *  setLimits runs out or moveNow is called. */
+    Move findMove(Board position) {
+        _started = System.currentTimeMillis();
+        _deadline = _timeLimit == 0 ? Long.MAX_VALUE
+            : _started + _timeLimit;
+        _stopRequested = _hurry;
+        _playouts.set(0);
+        setRoot(position);
+        expand(_root, position, new int[MAX_MOVES]);
+        if (_childCount[_root] > 1) {
+            runPlayouts(position);
+        }
+        int best = bestChild(_root);
+        _line = new ArrayList<>();
+        for (int node = best; node >= 0; node = bestChild(node)) {
+            _line.add(Move.mv(_move[node]));
+        }
+        _chosen = best;
+        Board after = new Board(position);
+        after.makeMove(_move[best]);
+        _chosenHash = after.hash();
+        return Move.mv(_move[best]);
+    }
+
+    /** Return the number of playouts run by my last search. */
+    long playouts() {
+        return _playouts.get();
+    }
+
+    /** Return the expected result of my last move according to my last
+     *  search, from -1000 (certain loss) to 1000 (certain win). */
+    int value() {
+        if (_chosen < 0 || _visits.get(_chosen) == 0) {
+            return 0;
+        }
+        return (int) (1000L * _score.get(_chosen) / _visits.get(_chosen))
+            - 1000;
+    }
+
+    /** Make the root of my tree the node for POSITION: the node reached
+     *  by the opponent's last move from the one I chose last time, if
+     *  that was the move before, it is in the tree, and the tree is no
+     *  more than half full; otherwise a new node in an empty tree. */
+    private void setRoot(Board position) {
+        if (_move == null) {
+            _move = new int[_poolSize];
+            _firstChild = new int[_poolSize];
+            _childCount = new int[_poolSize];
+            _state = new AtomicIntegerArray(_poolSize);
+            _visits = new AtomicIntegerArray(_poolSize);
+            _score = new AtomicIntegerArray(_poolSize);
+            _size = new AtomicInteger();
+            _chosen = -1;
+        }
+        int root = -1;
+        if (_chosen >= 0 && _state.get(_chosen) == EXPANDED
+            && _size.get() <= _poolSize / 2) {
+            Board before = new Board(position);
+            before.undo();
+            if (before.moveCount() == position.moveCount() - 1
+                && before.hash() == _chosenHash) {
+                root = child(_chosen, position.lastMove());
+            }
+        }
+        if (root < 0 || _state.get(root) == FULL) {
+            _size.set(0);
+            root = allocate(1);
+            _move[root] = 0;
+        }
+        _root = root;
+        _chosen = -1;
+    }
+
+    /** Return the child of NODE reached by MOVE, or -1 if there is
+     *  none. */
+    private int child(int node, int move) {
+        int first = _firstChild[node];
+        for (int c = first; c < first + _childCount[node]; c += 1) {
+            if (_move[c] == move) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the most visited child of NODE, or -1 if it is not expanded
+     *  or none has been visited. */
+    private int bestChild(int node) {
+        if (_state.get(node) != EXPANDED) {
+            return -1;
+        }
+        int best = -1;
+        int first = _firstChild[node];
+        for (int c = first; c < first + _childCount[node]; c += 1) {
+            if (best < 0 || _visits.get(c) > _visits.get(best)
+                || _visits.get(c) == _visits.get(best)
+                   && _score.get(c) > _score.get(best)) {
+                best = c;
+            }
+        }
+        return node != _root && _visits.get(best) == 0 ? -1 : best;
+    }
+
+    /** Run playouts from POSITION, the position at my root, on my threads
+     *  until my limits run out.  Returns only once all the threads have
+     *  finished with the tree: if interrupted, or if a playout fails, it
+     *  stops them and waits for them. */
+    private void runPlayouts(Board position) {
+        long seed = _controller == null ? 0 : _controller.randInt(1 << 30);
+        if (_threads == 1) {
+            new Worker(position, seed).run();
+            return;
+        }
+        if (_executor == null) {
+            _executor = Executors.newFixedThreadPool(_threads, r -> {
+                Thread thread = new Thread(r, "MCTS worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        List<Future<?>> workers = new ArrayList<>();
+        for (int k = 0; k < _threads; k += 1) {
+            workers.add(_executor.submit(new Worker(position, seed + k)));
+        }
+        boolean interrupted = false;
+        ExecutionException failure = null;
+        for (Future<?> worker : workers) {
+            while (true) {
+                try {
+                    worker.get();
+                    break;
+                } catch (InterruptedException excp) {
+                    interrupted = _stopRequested = true;
+                } catch (ExecutionException excp) {
+                    _stopRequested = true;
+                    failure = excp;
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw new IllegalStateException("playout failed: "
+                                            + failure.getCause(), failure);
+        }
+    }
+
+    /** Return true iff my search should stop. */
+    private boolean outOfTime() {
+        if (_stopRequested
+            || _playoutLimit > 0 && _playouts.get() >= _playoutLimit
+            || System.currentTimeMillis() >= _deadline) {
+            _stopRequested = true;
+        }
+        return _stopRequested;
+    }
+
+    /** Expand NODE, whose position is BOARD, giving it a child for each
+     *  legal move, captures first, unless another thread is doing so, it
+     *  is already expanded, or the pool is full.  Uses MOVES as a
+     *  buffer. */
+    private void expand(int node, Board board, int[] moves) {
+        if (!_state.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+            return;
+        }
+        int n = board.legalMoves(board.turn(), moves, 0);
+        int first = allocate(n);
+        if (first < 0) {
+            _state.set(node, FULL);
+            return;
+        }
+        int c = first;
+        for (int k = 0; k < n; k += 1) {
+            if (board.isCapture(moves[k])) {
+                _move[c] = moves[k];
+                c += 1;
+            }
+        }
+        for (int k = 0; k < n; k += 1) {
+            if (!board.isCapture(moves[k])) {
+                _move[c] = moves[k];
+                c += 1;
+            }
+        }
+        _firstChild[node] = first;
+        _childCount[node] = n;
+        _state.set(node, EXPANDED);
+    }
+
+    /** Return the first of N new, unexpanded, unvisited nodes, or -1 if
+     *  there is no room for them. */
+    private int allocate(int n) {
+        int first;
+        do {
+            first = _size.get();
+            if (first + n > _poolSize) {
+                return -1;
+            }
+        } while (!_size.compareAndSet(first, first + n));
+        for (int c = first; c < first + n; c += 1) {
+            _state.set(c, UNEXPANDED);
+            _visits.set(c, 0);
+            _score.set(c, 0);
+        }
+        return first;
+    }
+
+    /** Return the child of NODE, which is expanded, with the highest UCT
+     *  value.  Unvisited children come first. */
+    private int select(int node) {
+        double logVisits = log(max(1, _visits.get(node)));
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        int first = _firstChild[node];
+        for (int c = first; c < first + _childCount[node]; c += 1) {
+            int visits = _visits.get(c);
+            if (visits == 0) {
+                return c;
+            }
+            double value = _score.get(c) / (2.0 * visits)
+                + EXPLORATION * sqrt(logVisits / visits);
+            if (value > bestValue) {
+                best = c;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    /** A thread's share of a search: playouts on its own copy of the
+     *  root position. */
+    private class Worker implements Runnable {
+
+        /** A worker searching from POSITION, which it copies, with random
+         *  moves seeded by SEED. */
+        Worker(Board position, long seed) {
+            _board = new Board(position);
+            _board.setListener(new Evaluator());
+            _random = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            while (!outOfTime()) {
+                for (int k = 0; k < CHECK_INTERVAL; k += 1) {
+                    playout();
+                }
+                _playouts.addAndGet(CHECK_INTERVAL);
+            }
+        }
+
+        /** Descend the tree from the root to a leaf, expanding it if it
+         *  has been visited often enough, finish the game at random, and
+         *  add the result to the nodes passed through. */
+        private void playout() {
+            int node = _root;
+            int depth = 0;
+            _path[0] = node;
+            _visits.incrementAndGet(node);
+            while (_board.winner() == null) {
+                if (_state.get(node) == UNEXPANDED
+                    && _visits.get(node) >= EXPAND_VISITS) {
+                    expand(node, _board, _moves);
+                }
+                if (_state.get(node) != EXPANDED) {
+                    break;
+                }
+                node = select(node);
+                _visits.incrementAndGet(node);
+                _board.makeMove(_move[node]);
+                depth += 1;
+                if (depth == _path.length) {
+                    _path = Arrays.copyOf(_path, 2 * depth);
+                }
+                _path[depth] = node;
+            }
+            int result = rollout();
+            for (int k = depth; k >= 0; k -= 1) {
+                result = WIN - result;
+                _score.addAndGet(_path[k], result);
+                if (k > 0) {
+                    _board.undo();
+                }
+            }
+        }
+
+        /** Play random moves from the current position until the game
+         *  ends or MAX_PLAYOUT plies have been played, restore the
+         *  position, and return the result (LOSS, DRAW, or WIN) for the
+         *  side to move. */
+        private int rollout() {
+            Piece side = _board.turn();
+            int plies;
+            for (plies = 0; _board.winner() == null && plies < MAX_PLAYOUT;
+                 plies += 1) {
+                _board.makeMove(playoutMove());
+            }
+            int result;
+            if (_board.winner() != null) {
+                result = _board.winner() == side ? WIN : LOSS;
+            } else {
+                int code = Tablebase.probe(_board, _tableScratch);
+                int value = code >= 0 ? Search.tableValue(code, 0)
+                    : Search.evaluate(_board, 0);
+                if (_board.turn() != side) {
+                    value = -value;
+                }
+                result = value > 0 ? WIN : value < 0 ? LOSS : DRAW;
+            }
+            for (; plies > 0; plies -= 1) {
+                _board.undo();
+            }
+            return result;
+        }
+
+        /** Return a random move for the side to move, assuming there is
+         *  one.  A move that wins at once (the king reaching a corner or
+         *  being captured) is always taken; otherwise, the first capture,
+         *  or for white the first king move, among SAMPLES random moves,
+         *  or failing that, a random move. */
+        private int playoutMove() {
+            Piece side = _board.turn();
+            int n = _board.legalMoves(side, _moves, 0);
+            int king = _board.kingIndex();
+            for (int k = 0; king >= 0 && k < n; k += 1) {
+                int move = _moves[k];
+                if (side == WHITE ? Move.from(move) == king
+                                    && isCorner(Move.to(move))
+                    : isNeighbor(Move.to(move), king)
+                      && _board.capturesKing(move)) {
+                    return move;
+                }
+            }
+            for (int k = 0; k < SAMPLES; k += 1) {
+                int move = _moves[_random.nextInt(n)];
+                if (_board.isCapture(move)
+                    || side == WHITE && Move.from(move) == king) {
+                    return move;
+                }
+            }
+            return _moves[_random.nextInt(n)];
+        }
+
+        /** My copy of the position being searched. */
+        private final Board _board;
+        /** Source of my random moves. */
+        private final Random _random;
+        /** Buffer for generating moves. */
+        private final int[] _moves = new int[MAX_MOVES];
+        /** Scratch space for probing the endgame tables. */
+        private final int[] _tableScratch = new int[Tablebase.SCRATCH_SIZE];
+        /** The nodes of the current playout, from the root down. */
+        private int[] _path = new int[Search.MAX_PLY];
+    }
+
+    /** Return true iff square index I is a corner. */
+    private static boolean isCorner(int i) {
+        for (int corner : CORNER_INDICES) {
+            if (i == corner) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff square indices I and J are next to each other. */
+    private static boolean isNeighbor(int i, int j) {
+        for (int d = 0; d < 4; d += 1) {
+            if (NEIGHBOR[i][d] == j) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Number of nodes in my tree. */
+    private int _poolSize;
+
+    /** The moves (Move codes) leading to each node from its parent. */
+    private int[] _move;
+
+    /** The first child of each expanded node. */
+    private int[] _firstChild;
+
+    /** The number of children of each expanded node. */
+    private int[] _childCount;
+
+    /** The state (UNEXPANDED, EXPANDING, EXPANDED, or FULL) of each
+     *  node. */
+    private AtomicIntegerArray _state;
+
+    /** The number of playouts through each node, including those still
+     *  in progress. */
+    private AtomicIntegerArray _visits;
+
+    /** The total result of the playouts through each node, in half
+     *  points, for the player who moved to it. */
+    private AtomicIntegerArray _score;
+
+    /** The number of nodes in use, which are the first ones. */
+    private AtomicInteger _size;
+
+    /** The root of my tree. */
+    private int _root;
+
+    /** The node of my last move, or -1 if it is no longer valid. */
+    private int _chosen = -1;
+
+    /** The hash of the position after my last move. */
+    private long _chosenHash;
+
+    /** The most visited line found by my last search. */
+    private List<Move> _line = new ArrayList<>();
+
+    /** Number of playouts run by the current or last search. */
+    private final AtomicLong _playouts = new AtomicLong();
+
+    /** Time (as for System.currentTimeMillis) at which the current or last
+     *  search started. */
+    private long _started;
+
+    /** Time at which the current search must stop. */
+    private long _deadline;
+
+    /** True iff moveNow has been called since the last startMove. */
+    private volatile boolean _hurry;
+
+    /** True iff the current search is to stop. */
+    private volatile boolean _stopRequested;
+
+    /** Longest time in milliseconds for one search (0 for no limit). */
+    private long _timeLimit;
+
+    /** Most playouts in one search (0 for no limit). */
+    private long _playoutLimit;
+
+    /** Number of threads to run playouts on. */
+    private int _threads;
+
+    /** Runs my worker threads, created on first use. */
+    private ExecutorService _executor;
+}
@@ -1,6 +1,7 @@
 package tablut;
 
 import java.util.List;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -15,16 +16,32 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The main program.  ARGS may contain the option --display,
+     *  --hash=MB and --offheap to size the AI's transposition table, and
+     *  --time=MS, --nodes=N, and --depth=D to limit each AI search, and
+     *  --nonull, --nolmr, and --nofutility to turn off the AI's null-move
+     *  pruning, late-move reductions, and futility pruning, and
+     *  --threads=N to set the number of threads each AI searches with,
+     *  --ybwc to split each AI search deterministically among them,
+     *  --ponder to have each AI search during its opponent's turns, and
+     *  --solve=N to limit each AI's attempts to prove a forced win to N
+     *  positions (0 for none).  --tablebases=DIR loads the endgame tables
+     *  in DIR (see Tablebase) for the automated players to use.
+     *  With --mcts, the automated players use Monte Carlo tree search
+     *  instead, with a tree of --hash=MB megabytes, limited by --time=MS
+     *  and --nodes=N playouts, running on --threads=N threads. */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --testing --strict --log={0,1} --={0,2}",
+            new CommandArgs("--display --testing --strict --log={0,1}"
+                            + " --hash={0,1} --offheap --time={0,1}"
+                            + " --nodes={0,1} --depth={0,1} --nonull"
+                            + " --nolmr --nofutility --threads={0,1}"
+                            + " --ybwc --ponder --mcts --solve={0,1}"
+                            + " --tablebases={0,1} --={0,2}",
                             args);
         if (!options.ok()) {
-            System.err.println("Usage: java tablut.Main [--display]"
-                               + " [--log=FILE] [--strict] [INPUT [OUTPUT]]");
-            System.exit(1);
+            usage();
         }
 
         List<String> files = options.get("--");
@@ -63,6 +80,88 @@ public class Main {
 
     }
 
+    /** Print a usage message and exit. */
+    private static void usage() {
+        System.err.println("Usage: java tablut.Main [--display]"
+                           + " [--log=FILE] [--strict] [--hash=MB]"
+                           + " [--offheap] [--time=MS] [--nodes=N]"
+                           + " [--depth=D] [--nonull] [--nolmr]"
+                           + " [--nofutility] [--threads=N] [--ybwc]"
+                           + " [--ponder] [--mcts] [--solve=N]"
+                           + " [--tablebases=DIR] [INPUT [OUTPUT]]");
+        System.exit(1);
+    }
+
+    /** Return an AI template configured as indicated by OPTIONS. */
+    private static AI getAI(CommandArgs options) {
+        AI ai = new AI();
+        if (options.contains("--hash")) {
+            try {
+                long megabytes = Long.parseLong(options.getFirst("--hash"));
+                ai.setHashSize(megabytes << 20, options.contains("--offheap"));
+            } catch (NumberFormatException excp) {
+                usage();
+            }
+        } else if (options.contains("--offheap")) {
+            ai.setHashSize(AI.DEFAULT_HASH_SIZE, true);
+        }
+        try {
+            long millis = AI.DEFAULT_TIME_LIMIT, nodes = 0;
+            int depth = AI.MAX_DEPTH;
+            if (options.contains("--time")) {
+                millis = Long.parseLong(options.getFirst("--time"));
+            }
+            if (options.contains("--nodes")) {
+                nodes = Long.parseLong(options.getFirst("--nodes"));
+            }
+            if (options.contains("--depth")) {
+                depth = Integer.parseInt(options.getFirst("--depth"));
+            }
+            ai.setLimits(millis, nodes, depth);
+            if (options.contains("--solve")) {
+                ai.setSolveLimit(Long.parseLong(options.getFirst("--solve")));
+            }
+            if (options.contains("--threads")) {
+                ai.setThreads(Integer.parseInt(options.getFirst("--threads")));
+            }
+        } catch (NumberFormatException excp) {
+            usage();
+        }
+        ai.setPruning(!options.contains("--nonull"),
+                      !options.contains("--nolmr"),
+                      !options.contains("--nofutility"));
+        ai.setYoungBrothersWait(options.contains("--ybwc"));
+        ai.setPondering(options.contains("--ponder"));
+        return ai;
+    }
+
+    /** Return a Monte Carlo tree search player template configured as
+     *  indicated by OPTIONS. */
+    private static MCTS getMCTS(CommandArgs options) {
+        MCTS mcts = new MCTS();
+        try {
+            if (options.contains("--hash")) {
+                mcts.setPoolSize(Long.parseLong(options.getFirst("--hash"))
+                                 << 20);
+            }
+            long millis = AI.DEFAULT_TIME_LIMIT, playouts = 0;
+            if (options.contains("--time")) {
+                millis = Long.parseLong(options.getFirst("--time"));
+            }
+            if (options.contains("--nodes")) {
+                playouts = Long.parseLong(options.getFirst("--nodes"));
+            }
+            mcts.setLimits(millis, playouts);
+            if (options.contains("--threads")) {
+                mcts.setThreads(
+                    Integer.parseInt(options.getFirst("--threads")));
+            }
+        } catch (NumberFormatException excp) {
+            usage();
+        }
+        return mcts;
+    }
+
     /** Return an appropriate Controller as indicated by OPTIONS. */
     private static Controller getController(CommandArgs options) {
         Player manualPlayer;
@@ -96,7 +195,18 @@ public class Main {
             }
         }
 
+        if (options.contains("--tablebases")) {
+            try {
+                Tablebase.load(new File(options.getFirst("--tablebases")));
+            } catch (IOException excp) {
+                throw error("Could not load endgame tables: %s",
+                            excp.getMessage());
+            }
+        }
+
+        Player autoPlayer =
+            options.contains("--mcts") ? getMCTS(options) : getAI(options);
         return new Controller(view, log, reporter, manualPlayer,
-                              new AI(), options.contains("--strict"));
+                              autoPlayer, options.contains("--strict"));
     }
 }
@@ -3,7 +3,6 @@ package tablut;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 import static tablut.Square.sq;
 import static tablut.Square.NUM_SQUARES;
@@ -14,16 +13,21 @@ import static tablut.Utils.*;
 /** A move in the game of Tablut. As for Squares, Moves are immutable
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
- *  As for Squares, you can freely use == to compare Moves.
+ *  As for Squares, you can freely use == to compare Moves.  All Moves are
+ *  created when the class is initialized, and the factory methods neither
+ *  allocate nor share mutable state, so they may be called from any
+ *  number of threads.  A move may also be represented by an int code
+ *  holding its from and to square indices (see code).
  *  @author Jeremy Ahn
  */
 final class Move {
 
     /** The syntax for a move, using either forms CR-C (horizontal moves)
      *  or CR-R (vertical moves), where C is a column letter (a-i or A-I) and
-     *  R is a row number (1-9). */
+     *  R is a row number (1-9).  The destination may not be the column or
+     *  row moved from, which would leave the piece where it is. */
     static final Pattern MOVE_PATTERN =
-        Pattern.compile(String.format("(([a-i])([1-9]))-(?:([a-i])|([1-9]))"));
+        Pattern.compile("(([a-i])([1-9]))-(?:(?!\\2)([a-i])|(?!\\3)([1-9]))");
 
     /** Return the square moved from. */
     Square from() {
@@ -35,40 +39,78 @@ final class Move {
         return _to;
     }
 
+    /** Return my int code (see code(int, int)). */
+    int code() {
+        return _code;
+    }
+
     /** Return the unique Move FROM-TO, or null if this is not a valid
      *  move. */
     static Move mv(Square from, Square to) {
-        if ((from.row() != to.row() && from.col() != to.col()) || from == to) {
-            return null;
-        }
-
-        if (MOVES[from.index()][to.index()] == null) {
-            MOVES[from.index()][to.index()] = new Move(from, to);
-        }
         return MOVES[from.index()][to.index()];
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            Square from = sq(_moveMatcher.group(1));
-            Square to;
-            if (_moveMatcher.group(5) == null) {
-                to = sq(_moveMatcher.group(4), _moveMatcher.group(3));
-            } else {
-                to = sq(_moveMatcher.group(2), _moveMatcher.group(5));
-            }
-            return mv(from, to);
+        int code = parse(str);
+        return code < 0 ? null : MOVES[from(code)][to(code)];
+    }
+
+    /** If STR matches MOVE_PATTERN, return code(FROM, TO) for the squares
+     *  it denotes (which are never equal), and otherwise -1.  Scans the
+     *  characters directly, without a Matcher. */
+    private static int parse(String str) {
+        if (str == null || str.length() != MOVE_LENGTH
+            || str.charAt(2) != '-') {
+            return -1;
+        }
+        int col = str.charAt(0) - 'a', row = str.charAt(1) - '1';
+        if (!inRange(col) || !inRange(row)) {
+            return -1;
         }
-        return null;
+        char dest = str.charAt(3);
+        int from = sq(col, row).index();
+        if (inRange(dest - 'a') && dest - 'a' != col) {
+            return code(from, sq(dest - 'a', row).index());
+        } else if (inRange(dest - '1') && dest - '1' != row) {
+            return code(from, sq(col, dest - '1').index());
+        }
+        return -1;
+    }
+
+    /** Return true iff 0 <= K < Board.SIZE. */
+    private static boolean inRange(int k) {
+        return k >= 0 && k < Board.SIZE;
+    }
+
+    /** Return the int encoding of the move from the square with index
+     *  FROM to the square with index TO.  The encoding is used for moves in
+     *  primitive move buffers (see Board.legalMoves(Piece, int[], int)). */
+    static int code(int from, int to) {
+        return (from << SQUARE_BITS) | to;
+    }
+
+    /** Return the index of the square moved from in the move encoded as
+     *  CODE. */
+    static int from(int code) {
+        return code >>> SQUARE_BITS;
+    }
+
+    /** Return the index of the square moved to in the move encoded as
+     *  CODE. */
+    static int to(int code) {
+        return code & SQUARE_MASK;
+    }
+
+    /** Return the Move encoded as CODE. */
+    static Move mv(int code) {
+        return MOVES[from(code)][to(code)];
     }
 
     /** Return true iff STR has the right format for a Move. */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return parse(str) >= 0;
     }
 
     @Override
@@ -92,6 +134,7 @@ final class Move {
     /** Construct the Move FROM-TO. */
     private Move(Square from, Square to) {
         _from = from; _to = to;
+        _code = code(from.index(), to.index());
         if (_from.col() == _to.col()) {
             _str = String.format("%s-%c", from, (char) to.row() + '1');
         } else {
@@ -106,10 +149,17 @@ final class Move {
 
     @Override
     public int hashCode() {
-        return (_from.index() << 6) + _to.index();
+        return _code;
     }
 
-    /** The cache of all Moves created. */
+    /** Width and mask of a square index in an encoded move. */
+    static final int SQUARE_BITS = 7, SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+
+    /** Length of the printed form of a move. */
+    private static final int MOVE_LENGTH = 4;
+
+    /** MOVES[i][j] is the Move from the square with index I to the square
+     *  with index J, or null if there is none. */
     private static final Move[][] MOVES = new Move[NUM_SQUARES][NUM_SQUARES];
 
     /** ROOK_MOVES[i][d] is a list of all rook moves in direction
@@ -124,7 +174,8 @@ final class Move {
             for (int d = 0; d < 4; d += 1) {
                 MoveList L = ROOK_MOVES[i0][d] = new MoveList();
                 for (Square sq1 : ROOK_SQUARES[i0][d]) {
-                    L.add(mv(sq0, sq1));
+                    Move m = MOVES[i0][sq1.index()] = new Move(sq0, sq1);
+                    L.add(m);
                 }
             }
         }
@@ -132,8 +183,8 @@ final class Move {
 
     /** The components of this Move. */
     private final Square _from, _to;
+    /** My int code. */
+    private final int _code;
     /** The printed form of this Move. */
-    private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
+    private final String _str;
 }
@@ -0,0 +1,596 @@
+package tablut;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Math.*;
+
+import static tablut.Piece.*;
+import static tablut.Board.MAX_MOVES;
+import static tablut.Search.CHECK_MASK;
+import static tablut.Search.INFTY;
+import static tablut.Search.MAX_PLY;
+import static tablut.Search.WILL_WIN_VALUE;
+import static tablut.Search.WINNING_VALUE;
+
+/** A deterministic parallel alpha-beta search using the Young Brothers
+ *  Wait Concept.  At each node at least SPLIT_DEPTH from the horizon,
+ *  the first (eldest) move is searched alone; then its younger brothers
+ *  are searched as tasks on a ForkJoinPool, each on its own copy of the
+ *  board, sharing a Bounds object whose alpha they raise as they find
+ *  better values.  A brother that fails high cancels the others.
+ *
+ *  Unlike Search, this search uses no transposition table, history, or
+ *  pruning beyond alpha-beta, and orders moves by a fixed rule (see
+ *  order), so its value is the minimax value of the tree searched and
+ *  its move is the first in that order to attain it.  The result is
+ *  therefore the same as that of a serial search (one with no pool) to
+ *  the same depth.
+ *  @author Jeremy Ahn
+ */
+final class ParallelSearch {
+
+    /** Nodes at least this far from the horizon search their younger
+     *  brothers in parallel. */
+    static final int SPLIT_DEPTH = 3;
+
+    /** A search that runs on POOL, or serially if POOL is null. */
+    ParallelSearch(ForkJoinPool pool) {
+        _pool = pool;
+        _board.setListener(_evaluator);
+        for (int k = 0; k < Evaluator.STAGES; k += 1) {
+            _stageCounts[k] = new LongAdder();
+        }
+    }
+
+    /** Prepare to search POSITION, which is copied, clearing the results
+     *  of any previous search and any request to stop. */
+    void reset(Board position) {
+        _board.copy(position);
+        _bestMove = 0;
+        _depth = _value = 0;
+        _nodes.reset();
+        _evaluator.clearCounts();
+        for (LongAdder count : _stageCounts) {
+            count.reset();
+        }
+        _stop = _stopRequested = false;
+    }
+
+    /** Search the position given to reset by iterative deepening at
+     *  depths FIRST, FIRST + 1, ..., LAST, and return the value for the
+     *  side to move found by the last iteration to complete.  Stops as
+     *  for Search.run(FIRST, LAST, DEADLINE, NODELIMIT). */
+    int run(int first, int last, long deadline, long nodeLimit) {
+        _deadline = deadline;
+        _nodeLimit = nodeLimit;
+        for (int depth = first; depth <= last; depth += 1) {
+            int d = depth;
+            int value = _pool == null ? searchRoot(d)
+                : _pool.invoke(ForkJoinTask.adapt(() -> searchRoot(d)));
+            if (_stop) {
+                break;
+            }
+            _depth = depth;
+            _value = value;
+            _bestMove = _rootMove;
+            if (_listener != null) {
+                _listener.run();
+            }
+            if (abs(value) >= WILL_WIN_VALUE) {
+                break;
+            }
+        }
+        return _value;
+    }
+
+    /** Call LISTENER (if not null) from the searching thread after
+     *  each iteration that completes, once its results are available. */
+    void setListener(Runnable listener) {
+        _listener = listener;
+    }
+
+    /** Ask the search to stop as soon as it has found a move.  May be
+     *  called from any thread. */
+    void stop() {
+        _stopRequested = true;
+    }
+
+    /** Return the code (see Move.code) of the best move found by the last
+     *  completed iteration, or 0 if none has completed. */
+    int bestMove() {
+        return _bestMove;
+    }
+
+    /** Return the depth of the last completed iteration (0 if none). */
+    int depth() {
+        return _depth;
+    }
+
+    /** Return the value found by the last completed iteration, for the
+     *  side to move. */
+    int value() {
+        return _value;
+    }
+
+    /** Return the number of positions visited so far by the current or
+     *  last search. */
+    long nodes() {
+        return _nodes.sum();
+    }
+
+    /** Return the number of static evaluations in the current or last
+     *  search that reached stage STAGE of the evaluation (see
+     *  Evaluator).  Evaluations by brothers still running are not
+     *  counted. */
+    long stageCount(int stage) {
+        return _evaluator.stageCount(stage) + _stageCounts[stage].sum();
+    }
+
+    /** Search _board to DEPTH, setting _rootMove to the first move in
+     *  order that attains the value found, and return that value.  After
+     *  a parallel search, younger brothers that failed low against a
+     *  value that later proved to be the best are searched again with a
+     *  null window to see whether they tie it. */
+    private int searchRoot(int depth) {
+        Worker worker = new Worker();
+        int[] moves = worker.moveBuffer(0);
+        int count = order(_board, _board.legalMoves(_board.turn(), moves, 0),
+                          moves, _bestMove);
+        int best = -INFTY, chosen = 0;
+        if (_pool == null || depth < SPLIT_DEPTH || count == 1) {
+            for (int k = 0; k < count; k += 1) {
+                _board.makeMove(moves[k]);
+                int value = -worker.search(_board, depth - 1, 1, -INFTY,
+                                           -best, null);
+                _board.undo();
+                if (value > best) {
+                    best = value;
+                    chosen = k;
+                }
+            }
+        } else {
+            _board.makeMove(moves[0]);
+            best = -worker.search(_board, depth - 1, 1, -INFTY, INFTY, null);
+            _board.undo();
+            Bounds bounds = new Bounds(best, INFTY, null);
+            List<Brother> brothers = brothers(_board, moves, count,
+                                              depth - 1, 1, bounds);
+            ForkJoinTask.invokeAll(brothers);
+            for (Brother brother : brothers) {
+                best = max(best, brother.join());
+            }
+            chosen = -1;
+            for (int k = 0; k < count && chosen < 0; k += 1) {
+                if (k == 0 ? best == bounds.first
+                    : brothers.get(k - 1).join() == best
+                    && brothers.get(k - 1).exact()) {
+                    chosen = k;
+                }
+            }
+            for (int k = 1; k < chosen; k += 1) {
+                if (brothers.get(k - 1).join() >= best) {
+                    _board.makeMove(moves[k]);
+                    int value = -worker.search(_board, depth - 1, 1, -best,
+                                               -best + 1, null);
+                    _board.undo();
+                    if (value >= best) {
+                        chosen = k;
+                        break;
+                    }
+                }
+            }
+        }
+        worker.flush();
+        _rootMove = moves[chosen];
+        return best;
+    }
+
+    /** Return tasks that search the moves MOVES[1 .. COUNT-1] from BOARD
+     *  to DEPTH, PLY plies below the root, within BOUNDS. */
+    private List<Brother> brothers(Board board, int[] moves, int count,
+                                   int depth, int ply, Bounds bounds) {
+        List<Brother> brothers = new ArrayList<>(count - 1);
+        for (int k = 1; k < count; k += 1) {
+            brothers.add(new Brother(board, moves[k], depth, ply, bounds));
+        }
+        return brothers;
+    }
+
+    /** Sort the first COUNT entries of MOVES, legal moves from BOARD, into
+     *  search order, and return COUNT: FIRST (if present), then captures
+     *  by decreasing value (see Board.exchange), then king moves that threaten
+     *  to reach a corner next (see Board.isCornerApproach), then the
+     *  rest, breaking ties by increasing move code.  The order depends
+     *  only on the position, not on how the moves were generated. */
+    private static int order(Board board, int count, int[] moves,
+                             int first) {
+        int king = board.kingIndex();
+        for (int k = 0; k < count; k += 1) {
+            int move = moves[k];
+            int rank;
+            if (move == first) {
+                rank = 0;
+            } else if (board.isCapture(move)) {
+                rank = MAX_GAIN + 1 - board.exchange(move);
+            } else if (Move.from(move) == king
+                       && board.isCornerApproach(Move.to(move))) {
+                rank = 2 * MAX_GAIN + 2;
+            } else {
+                rank = 2 * MAX_GAIN + 3;
+            }
+            moves[k] = (rank << CODE_BITS) | move;
+        }
+        Arrays.sort(moves, 0, count);
+        for (int k = 0; k < count; k += 1) {
+            moves[k] &= (1 << CODE_BITS) - 1;
+        }
+        return count;
+    }
+
+    /** Set _stop if the search has been asked to stop or has run out of
+     *  time or positions.  Never stops a search before it has found a
+     *  move. */
+    private void checkLimits() {
+        if (_bestMove != 0
+            && (_stopRequested || _nodeLimit > 0 && nodes() >= _nodeLimit
+                || System.currentTimeMillis() >= _deadline)) {
+            _stop = true;
+        }
+    }
+
+    /** The window of a node whose younger brothers are being searched in
+     *  parallel, shared by their tasks. */
+    private static final class Bounds {
+        /** Bounds with alpha ALPHA and beta BETA, nested in PARENT (null
+         *  at the root). */
+        Bounds(int alpha, int beta, Bounds parent) {
+            this.first = alpha;
+            this.alpha = new AtomicInteger(alpha);
+            this.beta = beta;
+            this.parent = parent;
+        }
+
+        /** Note that a brother found VALUE, searching with a window whose
+         *  lower bound was ALPHA. */
+        void update(int value, int alpha) {
+            if (value >= beta) {
+                cutoff = true;
+            } else if (value > alpha) {
+                this.alpha.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        /** Return true iff the search of this node or of any enclosing
+         *  one has been cut off. */
+        boolean cancelled() {
+            for (Bounds b = this; b != null; b = b.parent) {
+                if (b.cutoff) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Value of the eldest brother. */
+        final int first;
+        /** Best value found so far by any brother. */
+        final AtomicInteger alpha;
+        /** Upper bound of the window. */
+        final int beta;
+        /** Bounds of the enclosing parallel node, or null. */
+        final Bounds parent;
+        /** True iff some brother has failed high. */
+        volatile boolean cutoff;
+    }
+
+    /** A task that searches one younger brother. */
+    private final class Brother extends RecursiveTask<Integer> {
+
+        /** Version of the serialized form (inherited from ForkJoinTask,
+         *  though tasks are never serialized). */
+        private static final long serialVersionUID = 1L;
+
+        /** A task searching MOVE from PARENT (which it copies when it
+         *  runs) to DEPTH, PLY plies below the root, within BOUNDS. */
+        Brother(Board parent, int move, int depth, int ply,
+                Bounds bounds) {
+            _parent = parent;
+            _move = move;
+            _depth = depth;
+            _ply = ply;
+            _bounds = bounds;
+        }
+
+        @Override
+        protected Integer compute() {
+            ArrayDeque<Worker> idle = _idleWorkers.get();
+            Worker worker = idle.isEmpty() ? new Worker() : idle.pop();
+            _alpha = _bounds.alpha.get();
+            int value;
+            try {
+                value = -worker.searchMove(_parent, _move, _depth, _ply,
+                                           -_bounds.beta, -_alpha, _bounds);
+            } finally {
+                idle.push(worker);
+            }
+            if (_stop || _bounds.cancelled()) {
+                _aborted = true;
+                return -INFTY;
+            }
+            _bounds.update(value, _alpha);
+            return value;
+        }
+
+        /** Return true iff my value is exact or a lower bound, rather
+         *  than an upper bound. */
+        boolean exact() {
+            return !_aborted && join() > _alpha;
+        }
+
+        /** The board to which my move applies. */
+        private final Board _parent;
+        /** My move, depth, and distance from the root. */
+        private final int _move, _depth, _ply;
+        /** The window of my parent. */
+        private final Bounds _bounds;
+        /** The lower bound of the window I searched with. */
+        private int _alpha;
+        /** True iff my search was cancelled and my value is meaningless. */
+        private boolean _aborted;
+    }
+
+    /** The recursive search done by one task, with its own count of
+     *  positions visited.  The Workers that search brothers are kept by
+     *  the threads that run them and reused from task to task. */
+    private final class Worker {
+
+        /** A Worker with its own board and evaluator. */
+        Worker() {
+            _myBoard.setListener(_myEvaluator);
+        }
+
+        /** Return the value of MOVE from PARENT for the side that makes
+         *  it, searched as for search(B, DEPTH, PLY, ALPHA, BETA, UP) on
+         *  a board B holding the position after MOVE.  My board becomes
+         *  a copy of PARENT, and my positions and evaluations are added
+         *  to the search's totals. */
+        int searchMove(Board parent, int move, int depth, int ply,
+                       int alpha, int beta, Bounds up) {
+            _myBoard.copy(parent);
+            _myBoard.makeMove(move);
+            _myEvaluator.clearCounts();
+            int value = search(_myBoard, depth, ply, alpha, beta, up);
+            flush();
+            for (int k = 0; k < Evaluator.STAGES; k += 1) {
+                _stageCounts[k].add(_myEvaluator.stageCount(k));
+            }
+            return value;
+        }
+
+        /** Return the value for the side to move of BOARD, PLY plies below
+         *  the root, searched to DEPTH, as for Search.findMove with the
+         *  window ALPHA, BETA but with no pruning other than alpha-beta.
+         *  UP is the Bounds of the nearest enclosing parallel node, or
+         *  null; returns 0 once it or the whole search is cancelled. */
+        int search(Board board, int depth, int ply, int alpha, int beta,
+                   Bounds up) {
+            if (depth <= 0) {
+                return quiesce(board, ply, alpha, beta, up);
+            }
+            if (count() || up != null && up.cancelled()) {
+                return 0;
+            }
+            if (board.winner() != null || ply == MAX_PLY - 1) {
+                return Search.evaluate(board, ply);
+            }
+            int[] moves = moveBuffer(ply);
+            int count = order(board, board.legalMoves(board.turn(), moves, 0),
+                              moves, 0);
+            board.makeMove(moves[0]);
+            int best = -search(board, depth - 1, ply + 1, -beta, -alpha, up);
+            board.undo();
+            if (best >= beta || count == 1) {
+                return best;
+            }
+            alpha = max(alpha, best);
+            if (_pool != null && depth >= SPLIT_DEPTH) {
+                Bounds bounds = new Bounds(alpha, beta, up);
+                List<Brother> brothers = brothers(board, moves, count,
+                                                  depth - 1, ply + 1, bounds);
+                ForkJoinTask.invokeAll(brothers);
+                for (Brother brother : brothers) {
+                    best = max(best, brother.join());
+                }
+                return best;
+            }
+            for (int k = 1; k < count; k += 1) {
+                board.makeMove(moves[k]);
+                int value = -search(board, depth - 1, ply + 1, -beta, -alpha,
+                                    up);
+                board.undo();
+                if (value > best) {
+                    best = value;
+                    alpha = max(alpha, value);
+                    if (value >= beta) {
+                        break;
+                    }
+                }
+            }
+            return best;
+        }
+
+        /** Return the value of BOARD, PLY plies below the root, as for
+         *  Search.quiesce with the window ALPHA, BETA, but without delta
+         *  pruning (captures that lose material are still skipped).  UP
+         *  is as for search. */
+        int quiesce(Board board, int ply, int alpha, int beta, Bounds up) {
+            if (count() || up != null && up.cancelled()) {
+                return 0;
+            }
+            if (board.winner() != null || ply == MAX_PLY - 1) {
+                return Search.evaluate(board, ply);
+            }
+            int code = Tablebase.probe(board, _tableScratch);
+            if (code >= 0) {
+                return Search.tableValue(code, ply);
+            }
+            Piece side = board.turn();
+            long pathsLo = board.kingPathsLo(),
+                pathsHi = board.kingPathsHi();
+            boolean escaping = (pathsLo | pathsHi) != 0;
+            if (escaping && side == WHITE) {
+                return WINNING_VALUE - ply - 1;
+            }
+            if (side == BLACK
+                && (board.kingAttackLo() | board.kingAttackHi()) != 0) {
+                return WINNING_VALUE - ply - 1;
+            }
+            int[] moves = moveBuffer(ply);
+            int count, best;
+            if (escaping) {
+                int all = board.legalMoves(side, moves, 0);
+                count = 0;
+                for (int k = 0; k < all; k += 1) {
+                    int move = moves[k];
+                    if (BitBoard.contains(pathsLo, pathsHi, Move.to(move))
+                        || board.isCapture(move)) {
+                        moves[count] = move;
+                        count += 1;
+                    }
+                }
+                best = -WINNING_VALUE + ply + 2;
+            } else {
+                best = Search.evaluate(board, ply, alpha, beta);
+                if (best >= beta) {
+                    return best;
+                }
+                alpha = max(alpha, best);
+                count = board.captureMoves(side, moves, 0);
+            }
+            order(board, count, moves, 0);
+            for (int k = 0; k < count; k += 1) {
+                if (!escaping && board.exchange(moves[k]) < 0) {
+                    continue;
+                }
+                board.makeMove(moves[k]);
+                int value = -quiesce(board, ply + 1, -beta, -alpha, up);
+                board.undo();
+                if (value > best) {
+                    best = value;
+                    alpha = max(alpha, value);
+                    if (value >= beta) {
+                        break;
+                    }
+                }
+            }
+            return best;
+        }
+
+        /** Count one position, checking the search's limits every
+         *  CHECK_MASK + 1 positions, and return true iff the search has
+         *  been stopped. */
+        private boolean count() {
+            _count += 1;
+            if ((_count & CHECK_MASK) == 0) {
+                flush();
+                checkLimits();
+            }
+            return _stop;
+        }
+
+        /** Add my count of positions to the search's total. */
+        void flush() {
+            _nodes.add(_count - _flushed);
+            _flushed = _count;
+        }
+
+        /** Return my buffer for the moves generated PLY plies below the
+         *  root, allocating it the first time it is needed. */
+        private int[] moveBuffer(int ply) {
+            if (_moveBuffers[ply] == null) {
+                _moveBuffers[ply] = new int[MAX_MOVES];
+            }
+            return _moveBuffers[ply];
+        }
+
+        /** Scratch space for probing the endgame tables. */
+        private final int[] _tableScratch = new int[Tablebase.SCRATCH_SIZE];
+
+        /** Positions I have visited, and how many of them have been added
+         *  to _nodes. */
+        private long _count, _flushed;
+        /** _moveBuffers[p] holds the moves generated P plies below the
+         *  root, as in Search, or is null if I have not yet reached ply
+         *  P.  Tasks run by this Worker's thread while it waits for
+         *  brothers use Workers of their own. */
+        private final int[][] _moveBuffers = new int[MAX_PLY][];
+        /** The board searched by searchMove. */
+        private final Board _myBoard = new Board();
+        /** Evaluates the positions on _myBoard. */
+        private final Evaluator _myEvaluator = new Evaluator();
+    }
+
+    /** Number of bits in a move code. */
+    private static final int CODE_BITS = 2 * Move.SQUARE_BITS;
+
+    /** Most that Board.exchange can give to a move, or take from it. */
+    private static final int MAX_GAIN = Board.KING_EXCHANGE;
+
+    /** Pool running my tasks, or null to search serially. */
+    private final ForkJoinPool _pool;
+
+    /** The board searched. */
+    private final Board _board = new Board();
+
+    /** Evaluates the positions on _board. */
+    private final Evaluator _evaluator = new Evaluator();
+
+    /** Workers, for each thread that runs brothers, not now in use by
+     *  that thread.  A thread waiting for brothers may run others in
+     *  the meantime, and so can need more than one Worker at once. */
+    private final ThreadLocal<ArrayDeque<Worker>> _idleWorkers =
+        ThreadLocal.withInitial(ArrayDeque::new);
+
+    /** Code of the best move found by the last completed iteration (0 if
+     *  none). */
+    private int _bestMove;
+
+    /** Code of the move chosen by the last call to searchRoot. */
+    private int _rootMove;
+
+    /** Depth and value of the last completed iteration. */
+    private int _depth, _value;
+
+    /** Positions visited by the current search. */
+    private final LongAdder _nodes = new LongAdder();
+
+    /** _stageCounts[s] is the number of static evaluations by finished
+     *  brothers in the current search that reached stage S. */
+    private final LongAdder[] _stageCounts =
+        new LongAdder[Evaluator.STAGES];
+
+    /** Most positions to visit in one search (0 for no limit). */
+    private long _nodeLimit;
+
+    /** Time (as for System.currentTimeMillis) at which the current
+     *  search must stop. */
+    private long _deadline;
+
+    /** True iff the current search has run out of time or positions and
+     *  is unwinding. */
+    private volatile boolean _stop;
+
+    /** Called after each completed iteration, or null. */
+    private volatile Runnable _listener;
+
+    /** True iff stop() has been called since the last reset. */
+    private volatile boolean _stopRequested;
+}
@@ -1,5 +1,8 @@
 package tablut;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
 import static tablut.Utils.*;
 
 /** A generic Tablut Player.
@@ -39,6 +42,24 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Start choosing a move or command as for myMove, returning a Future
+     *  for the result.  By default, calls myMove and returns its
+     *  result. */
+    Future<String> startMove() {
+        return CompletableFuture.completedFuture(myMove());
+    }
+
+    /** Ask me to finish choosing the move requested by startMove as soon
+     *  as I can, with the best move I have found so far.  May be called
+     *  from any thread.  Does nothing by default. */
+    void moveNow() {
+    }
+
+    /** Stop any work I am doing in the background, such as thinking on
+     *  my opponent's time.  Does nothing by default. */
+    void stop() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
@@ -1,5 +1,7 @@
 package tablut;
 
+import java.util.List;
+
 /** An object that reports errors and other notifications to the user.
  *  @author P. N. Hilfinger
  */
@@ -16,5 +18,13 @@ interface Reporter {
     /** Display MOVE as needed. */
     void reportMove(Move move);
 
+    /** Display the progress of an automated player's search: it has
+     *  searched to DEPTH, finding VALUE for the side to move and the
+     *  principal variation LINE, at NODESPERSECOND positions per second.
+     *  Does nothing by default. */
+    default void reportSearch(int depth, int value, List<Move> line,
+                              long nodesPerSecond) {
+    }
+
 }
 
@@ -0,0 +1,806 @@
+package tablut;
+
+import java.util.Arrays;
+
+import static java.lang.Math.*;
+
+import static tablut.Piece.*;
+import static tablut.Board.MAX_MOVES;
+
+/** An iterative-deepening alpha-beta search for the best move from a
+ *  Tablut position.  Each Search has its own board and move-ordering
+ *  tables, so several may run at once in different threads, sharing a
+ *  transposition table.  Only stop() may be called from a thread other
+ *  than the one running the search.
+ *  @author Jeremy Ahn
+ */
+final class Search {
+
+    /** Largest search depth. */
+    static final int MAX_DEPTH = 64;
+
+    /** Largest number of plies below the root that the search reaches,
+     *  plus 1. */
+    static final int MAX_PLY = 2 * MAX_DEPTH;
+
+    /** A position-score magnitude indicating a win (for the side to move
+     *  if positive, its opponent if negative). */
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 20;
+    /** The least position-score magnitude indicating a forced win in a
+     *  subsequent move.  A win found P plies below the root scores
+     *  WINNING_VALUE - P, to avoid putting off wins. */
+    static final int WILL_WIN_VALUE = WINNING_VALUE - MAX_PLY;
+    /** A magnitude greater than a normal value. */
+    static final int INFTY = Integer.MAX_VALUE;
+
+    /** A new search that keeps its results in TABLE, with all pruning
+     *  enabled. */
+    Search(TranspositionTable table) {
+        _table = table;
+        _nullMovePruning = _lateMoveReductions = _futilityPruning = true;
+        _board.setListener(_evaluator);
+    }
+
+    /** Enable null-move pruning iff NULLMOVE, late-move reductions iff
+     *  REDUCTIONS, and futility pruning iff FUTILITY. */
+    void setPruning(boolean nullMove, boolean reductions,
+                    boolean futility) {
+        _nullMovePruning = nullMove;
+        _lateMoveReductions = reductions;
+        _futilityPruning = futility;
+    }
+
+    /** Prepare to search POSITION, which is copied, clearing the results
+     *  of any previous search and any request to stop. */
+    void reset(Board position) {
+        _board.copy(position);
+        _bestMove = 0;
+        _pvLine = new int[0];
+        _depth = _value = 0;
+        _nodes = 0;
+        _evaluator.clearCounts();
+        _stop = _stopRequested = false;
+    }
+
+    /** Search the position given to reset by iterative deepening at
+     *  depths FIRST, FIRST + 1, ..., LAST, and return the value for the
+     *  side to move found by the last iteration to complete.  Stops early
+     *  when a forced result is found (perhaps by my solver, before the
+     *  first iteration; see setSolver), or, once an iteration has
+     *  completed, when stop() is called, when the time DEADLINE (as for
+     *  System.currentTimeMillis) passes, or when NODELIMIT positions
+     *  (unless it is 0) have been visited. */
+    int run(int first, int last, long deadline, long nodeLimit) {
+        setLimits(deadline, nodeLimit);
+        return run(first, last);
+    }
+
+    /** As for run(FIRST, LAST, DEADLINE, NODELIMIT), with the limits set
+     *  by the last call to setLimits. */
+    int run(int first, int last) {
+        if (solve()) {
+            return _value;
+        }
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, 0);
+        }
+        ageHistory();
+        int value = 0;
+        for (int depth = first; depth <= last; depth += 1) {
+            value = aspirate(_board, depth, value);
+            if (_stop) {
+                break;
+            }
+            _bestMove = _pv[0][0];
+            _pvLine = Arrays.copyOf(_pv[0], _pvLength[0]);
+            _depth = depth;
+            _value = value;
+            if (_listener != null) {
+                _listener.run();
+            }
+            if (abs(value) >= WILL_WIN_VALUE) {
+                break;
+            }
+        }
+        return _value;
+    }
+
+    /** Before each search of a critical position (see
+     *  Solver.isCritical), try to prove a win for the side to move, and
+     *  failing that for its opponent, with SOLVER, looking at most DEPTH
+     *  plies ahead and at NODELIMIT positions each time.  A null SOLVER
+     *  turns this off. */
+    void setSolver(Solver solver, int depth, long nodeLimit) {
+        _solver = solver;
+        _solveDepth = depth;
+        _solveLimit = nodeLimit;
+    }
+
+    /** If I have a solver and it proves a win for either side in the
+     *  position to be searched, record the winning line as the result of
+     *  a search to its length and return true.  Otherwise return false.
+     *  When the win is the opponent's, every move loses, and the line
+     *  starts with the move the solver refuted last. */
+    private boolean solve() {
+        if (_solver == null || !Solver.isCritical(_board)) {
+            return false;
+        }
+        Piece side = _board.turn();
+        int[] line = _solver.solve(_board, side, _solveDepth, _solveLimit);
+        _nodes += _solver.nodes();
+        if (line != null) {
+            _value = WINNING_VALUE - line.length;
+        } else {
+            line = _solver.solve(_board, side.opponent(), _solveDepth,
+                                 _solveLimit);
+            _nodes += _solver.nodes();
+            if (line == null) {
+                return false;
+            }
+            _value = -WINNING_VALUE + line.length;
+        }
+        _bestMove = line[0];
+        _pvLine = line;
+        _depth = line.length;
+        if (_listener != null) {
+            _listener.run();
+        }
+        return true;
+    }
+
+    /** Stop the current or next search once it has found a move and
+     *  the time DEADLINE (as for System.currentTimeMillis) has passed or
+     *  it has visited NODELIMIT positions (unless it is 0).  May be
+     *  called from any thread, so that a search started without limits
+     *  may be given some later. */
+    void setLimits(long deadline, long nodeLimit) {
+        _deadline = deadline;
+        _nodeLimit = nodeLimit;
+    }
+
+    /** Call LISTENER (if not null) from the searching thread after
+     *  each iteration that completes, once its results are available. */
+    void setListener(Runnable listener) {
+        _listener = listener;
+    }
+
+    /** Ask the search to stop as soon as it has found a move.  May be
+     *  called from any thread. */
+    void stop() {
+        _stopRequested = true;
+    }
+
+    /** Return the code (see Move.code) of the best move found by the last
+     *  completed iteration, or 0 if none has completed. */
+    int bestMove() {
+        return _bestMove;
+    }
+
+    /** Return the codes of the moves of the principal variation found by
+     *  the last completed iteration, starting with the best move. */
+    int[] principalVariation() {
+        return _pvLine.clone();
+    }
+
+    /** Return the depth of the last completed iteration (0 if none). */
+    int depth() {
+        return _depth;
+    }
+
+    /** Return the value found by the last completed iteration, for the
+     *  side to move. */
+    int value() {
+        return _value;
+    }
+
+    /** Return the number of positions visited by the current or last
+     *  search. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the number of static evaluations in the current or last
+     *  search that reached stage STAGE of the evaluation (see
+     *  Evaluator). */
+    long stageCount(int stage) {
+        return _evaluator.stageCount(stage);
+    }
+
+    /** The board searched. */
+    private final Board _board = new Board();
+
+    /** Evaluates the positions on _board. */
+    private final Evaluator _evaluator = new Evaluator();
+
+    /** Transposition table, possibly shared with other Searches. */
+    private final TranspositionTable _table;
+
+    /** Code of the best move found by the last completed iteration (0 if
+     *  none). */
+    private int _bestMove;
+
+    /** Principal variation found by the last completed iteration. */
+    private int[] _pvLine;
+
+    /** Depth of the last completed iteration. */
+    private int _depth;
+
+    /** Value found by the last completed iteration. */
+    private int _value;
+
+    /** True iff null-move pruning is enabled. */
+    private boolean _nullMovePruning;
+
+    /** True iff late-move reductions are enabled. */
+    private boolean _lateMoveReductions;
+
+    /** True iff futility pruning is enabled. */
+    private boolean _futilityPruning;
+
+    /** Most positions to visit in one search (0 for no limit). */
+    private volatile long _nodeLimit;
+
+    /** Time (as for System.currentTimeMillis) at which the current
+     *  search must stop. */
+    private volatile long _deadline;
+
+    /** Proves wins in critical positions before searching, or null. */
+    private Solver _solver;
+
+    /** Longest line _solver looks for, in plies. */
+    private int _solveDepth;
+
+    /** Most positions _solver visits in one search. */
+    private long _solveLimit;
+
+    /** Called after each completed iteration, or null. */
+    private volatile Runnable _listener;
+
+    /** True iff stop() has been called since the last reset. */
+    private volatile boolean _stopRequested;
+
+    /** Number of null-move verification searches in progress, during
+     *  which null moves are not tried. */
+    private int _verifying;
+
+    /** Number of positions visited so far in the current search. */
+    private long _nodes;
+
+    /** True iff the current search has run out of time or positions and
+     *  is unwinding. */
+    private boolean _stop;
+
+    /** _moveBuffers[p] holds the moves generated P plies below the
+     *  root. */
+    private final int[][] _moveBuffers = new int[MAX_PLY][MAX_MOVES];
+
+    /** _scoreBuffers[p][k] is the ordering score of _moveBuffers[p][k]. */
+    private final int[][] _scoreBuffers = new int[MAX_PLY][MAX_MOVES];
+
+    /** Scratch space for probing the endgame tables (see
+     *  Tablebase.probe). */
+    private final int[] _tableScratch = new int[Tablebase.SCRATCH_SIZE];
+
+    /** Triangular table of principal variations: _pv[p][p ..
+     *  _pvLength[p]-1] is the best line found from the position P plies
+     *  below the root. */
+    private final int[][] _pv = new int[MAX_PLY][MAX_PLY];
+
+    /** See _pv. */
+    private final int[] _pvLength = new int[MAX_PLY];
+
+    /** _killers[p] holds the two quiet moves that most recently caused
+     *  cutoffs P plies below the root, the most recent first. */
+    private final int[][] _killers = new int[MAX_PLY][2];
+
+    /** _history[m] is the credit earned by the quiet move with code M for
+     *  causing cutoffs, weighted by the depth remaining when it did. */
+    private final int[] _history = new int[MOVE_CODES];
+
+    /** _counterMoves[m] is the code of the quiet move that last caused a
+     *  cutoff in reply to the move with code M (0 for none). */
+    private final int[] _counterMoves = new int[MOVE_CODES];
+
+    /** Search BOARD to DEPTH with an aspiration window around GUESS, the
+     *  value of the previous iteration, and return its value for the side
+     *  to move.  Each side of the window that fails is widened by a
+     *  factor of 2 until the value falls inside it. */
+    private int aspirate(Board board, int depth, int guess) {
+        if (depth < ASPIRATION_DEPTH || abs(guess) >= WILL_WIN_VALUE) {
+            return findMove(board, depth, 0, -INFTY, INFTY);
+        }
+        long below = ASPIRATION_WINDOW, above = ASPIRATION_WINDOW;
+        while (true) {
+            int alpha = (int) max(-INFTY, guess - below),
+                beta = (int) min(INFTY, guess + above);
+            int value = findMove(board, depth, 0, alpha, beta);
+            if (_stop) {
+                return 0;
+            } else if (value <= alpha && alpha > -INFTY) {
+                below *= 2;
+            } else if (value >= beta && beta < INFTY) {
+                above *= 2;
+            } else {
+                return value;
+            }
+        }
+    }
+
+    /** Find a move from position BOARD, PLY plies below the root, and
+     *  return its value for the side to move, searching up to DEPTH
+     *  further plies.  The value is exact if it is strictly between ALPHA
+     *  and BETA; otherwise it is a bound on the exact value on the same
+     *  side of the window.  Searches the first move with the full window
+     *  and the others with a null window, searching again only those
+     *  that beat ALPHA.  Searching at depth 0 continues with quiesce.
+     *  Records the best line found in _pv.  Results are kept in the
+     *  transposition table, whose best move is searched first (or at the
+     *  root, the move found by the previous iteration), and cut off
+     *  null-window searches, so that the line found is complete.  A king
+     *  move that threatens to reach a corner next is searched a ply
+     *  deeper, while the extended line is no longer than what remains.
+     *
+     *  Away from the principal variation, and unless the king threatens
+     *  to reach a corner, the search is selective (as enabled by
+     *  setPruning): it cuts off if passing (a null move) still fails
+     *  high at reduced depth, verifying that result at reduced depth
+     *  when few pieces remain; it searches quiet moves late in the order
+     *  at reduced depth first; and near the horizon it skips quiet moves
+     *  when the static value is too far below ALPHA for them to
+     *  matter.  Returns 0 once the search has been stopped. */
+    private int findMove(Board board, int depth, int ply, int alpha,
+                         int beta) {
+        if (depth <= 0) {
+            return quiesce(board, ply, alpha, beta);
+        }
+        _nodes += 1;
+        if ((_nodes & CHECK_MASK) == 0) {
+            checkLimits();
+        }
+        if (_stop) {
+            return 0;
+        }
+        _pvLength[ply] = ply;
+        if (board.winner() != null || ply == MAX_PLY - 1) {
+            return evaluate(board, ply);
+        }
+        if (ply > 0) {
+            int code = Tablebase.probe(board, _tableScratch);
+            if (code >= 0) {
+                return tableValue(code, ply);
+            }
+        }
+        long key = board.hash();
+        long entry = _table.probe(key);
+        if (entry != 0 && beta - alpha == 1
+            && TranspositionTable.depth(entry) >= depth) {
+            int score = fromTable(TranspositionTable.score(entry), ply);
+            switch (TranspositionTable.bound(entry)) {
+            case TranspositionTable.EXACT:
+                return score;
+            case TranspositionTable.LOWER:
+                alpha = max(alpha, score);
+                break;
+            default:
+                beta = min(beta, score);
+                break;
+            }
+            if (alpha >= beta) {
+                return score;
+            }
+        }
+        boolean pvNode = beta - alpha > 1;
+        boolean prunable = !pvNode && ply > 0 && abs(beta) < WILL_WIN_VALUE
+            && (board.kingPathsLo() | board.kingPathsHi()) == 0;
+        int eval = prunable ? evaluate(board, ply) : 0;
+        if (prunable && _nullMovePruning && _verifying == 0
+            && depth >= NULL_MOVE_DEPTH && eval >= beta
+            && board.lastMove() != 0) {
+            int reduced = depth - 1 - (depth > 6 ? 3 : 2);
+            board.makeNullMove();
+            int value = -findMove(board, reduced, ply + 1, -beta, -beta + 1);
+            board.undo();
+            if (_stop) {
+                return 0;
+            }
+            if (value >= beta && board.pieceCount(BLACK)
+                + board.pieceCount(WHITE) <= VERIFY_PIECES) {
+                _verifying += 1;
+                value = findMove(board, reduced, ply, beta - 1, beta);
+                _verifying -= 1;
+            }
+            if (value >= beta) {
+                return value >= WILL_WIN_VALUE ? beta : value;
+            }
+        }
+        boolean futile = prunable && _futilityPruning
+            && depth < FUTILITY_MARGINS.length
+            && eval + FUTILITY_MARGINS[depth] <= alpha;
+        int[] moves = _moveBuffers[ply], scores = _scoreBuffers[ply];
+        int count = board.legalMoves(board.turn(), moves, 0);
+        int hashMove = TranspositionTable.move(entry);
+        if (ply == 0 && _bestMove != 0) {
+            hashMove = _bestMove;
+        }
+        scoreMoves(board, moves, scores, count, hashMove, ply);
+        int king = board.kingIndex();
+        int start = alpha, best = -INFTY, bestMove = 0;
+        for (int k = 0; k < count; k += 1) {
+            int move = nextMove(moves, scores, k, count);
+            boolean quiet = k > 0 && scores[k] < COUNTER_SCORE
+                && Move.from(move) != king;
+            if (futile && quiet) {
+                best = max(best, eval + FUTILITY_MARGINS[depth]);
+                continue;
+            }
+            if (prunable && quiet && depth <= EXCHANGE_DEPTH
+                && board.exchange(move) < 0) {
+                continue;
+            }
+            board.makeMove(move);
+            int next = depth - 1;
+            if (Move.from(move) == king && ply < depth
+                && board.cornerDistance() == 1) {
+                next += 1;
+            }
+            int value;
+            if (k == 0) {
+                value = -findMove(board, next, ply + 1, -beta, -alpha);
+            } else {
+                int reduction = 0;
+                if (quiet && k >= LATE_MOVES && _lateMoveReductions
+                    && depth >= LMR_DEPTH) {
+                    reduction = k >= 2 * LATE_MOVES && depth >= 6 ? 2 : 1;
+                }
+                value = -findMove(board, next - reduction, ply + 1,
+                                  -alpha - 1, -alpha);
+                if (value > alpha && reduction > 0) {
+                    value = -findMove(board, next, ply + 1,
+                                      -alpha - 1, -alpha);
+                }
+                if (value > alpha && value < beta) {
+                    value = -findMove(board, next, ply + 1,
+                                      -beta, -alpha);
+                }
+            }
+            board.undo();
+            if (_stop) {
+                return 0;
+            }
+            if (value > best) {
+                best = value;
+                bestMove = move;
+                if (value > alpha) {
+                    alpha = value;
+                    updatePV(ply, move);
+                }
+                if (value >= beta) {
+                    recordCutoff(board, move, depth, ply);
+                    break;
+                }
+            }
+        }
+        if (count > 0) {
+            int bound = best <= start ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+            _table.store(key, depth, bound, toTable(best, ply),
+                         bound == TranspositionTable.UPPER ? 0 : bestMove);
+        }
+        return best;
+    }
+
+    /** Return the value of BOARD, PLY plies below the root, for the side
+     *  to move, as for findMove at depth 0, but searching captures until
+     *  the position is quiet.  The side to move may stand pat on the
+     *  static value unless the king threatens to reach a corner, in which
+     *  case black must block the king (or capture).  White wins at once if
+     *  it can move the king to a corner.  Captures that lose material by
+     *  Board.exchange, or that cannot bring the static value within
+     *  DELTA_MARGIN of ALPHA, are skipped. */
+    private int quiesce(Board board, int ply, int alpha, int beta) {
+        _nodes += 1;
+        if ((_nodes & CHECK_MASK) == 0) {
+            checkLimits();
+        }
+        if (_stop) {
+            return 0;
+        }
+        _pvLength[ply] = ply;
+        if (board.winner() != null || ply == MAX_PLY - 1) {
+            return evaluate(board, ply);
+        }
+        int code = Tablebase.probe(board, _tableScratch);
+        if (code >= 0) {
+            return tableValue(code, ply);
+        }
+        Piece side = board.turn();
+        long pathsLo = board.kingPathsLo(), pathsHi = board.kingPathsHi();
+        boolean escaping = (pathsLo | pathsHi) != 0;
+        if (escaping && side == WHITE) {
+            return WINNING_VALUE - ply - 1;
+        }
+        if (side == BLACK
+            && (board.kingAttackLo() | board.kingAttackHi()) != 0) {
+            return WINNING_VALUE - ply - 1;
+        }
+        int[] moves = _moveBuffers[ply], scores = _scoreBuffers[ply];
+        int count, standPat = -INFTY, best = -INFTY;
+        if (escaping) {
+            int all = board.legalMoves(side, moves, 0);
+            count = 0;
+            for (int k = 0; k < all; k += 1) {
+                int move = moves[k];
+                if (BitBoard.contains(pathsLo, pathsHi, Move.to(move))
+                    || board.isCapture(move)) {
+                    moves[count] = move;
+                    count += 1;
+                }
+            }
+            best = -WINNING_VALUE + ply + 2;
+        } else {
+            standPat = best = evaluate(board, ply, alpha, beta);
+            if (best >= beta) {
+                return best;
+            }
+            alpha = max(alpha, best);
+            count = board.captureMoves(side, moves, 0);
+        }
+        scoreMoves(board, moves, scores, count, 0, ply);
+        for (int k = 0; k < count; k += 1) {
+            int move = nextMove(moves, scores, k, count);
+            int gain = scores[k] - CAPTURE_SCORE - Board.KING_EXCHANGE;
+            if (!escaping && scores[k] >= CAPTURE_SCORE
+                && (gain < 0 || gain < Board.KING_EXCHANGE
+                    && standPat + gain * PIECE_VALUE + DELTA_MARGIN <= alpha)) {
+                continue;
+            }
+            board.makeMove(move);
+            int value = -quiesce(board, ply + 1, -beta, -alpha);
+            board.undo();
+            if (_stop) {
+                return 0;
+            }
+            if (value > best) {
+                best = value;
+                if (value > alpha) {
+                    alpha = value;
+                    updatePV(ply, move);
+                }
+                if (value >= beta) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Make MOVE, followed by the principal variation found from the
+     *  position after it, the principal variation at PLY. */
+    private void updatePV(int ply, int move) {
+        int[] line = _pv[ply], rest = _pv[ply + 1];
+        line[ply] = move;
+        int len = _pvLength[ply + 1];
+        System.arraycopy(rest, ply + 1, line, ply + 1, len - ply - 1);
+        _pvLength[ply] = max(len, ply + 1);
+    }
+
+    /** Return the value of BOARD, PLY plies below the root, for the side
+     *  to move, without searching.  Wins nearer the root are worth more,
+     *  so that the search does not put them off.  The endgame tables are
+     *  not consulted: callers that use them probe them first (see
+     *  tableValue), once per position. */
+    static int evaluate(Board board, int ply) {
+        return evaluate(board, ply, -INFTY, INFTY);
+    }
+
+    /** Return the value of BOARD, PLY plies below the root, for the side
+     *  to move, as for evaluate(BOARD, PLY), except that the result need
+     *  only be exact if it is strictly between ALPHA and BETA: otherwise,
+     *  it may be any bound on the value on the same side of the window,
+     *  which lets the evaluation skip its costlier terms. */
+    static int evaluate(Board board, int ply, int alpha, int beta) {
+        if (board.winner() != null) {
+            return board.winner() == board.turn() ? WINNING_VALUE - ply
+                : -WINNING_VALUE + ply;
+        }
+        if (board.turn() == WHITE) {
+            return staticScore(board, alpha, beta);
+        }
+        return -staticScore(board, -beta, -alpha);
+    }
+
+    /** Return the value, for the side to move, of a position PLY plies
+     *  below the root whose code in the endgame tables is CODE (see
+     *  Tablebase): a win or loss that many plies further on (but never
+     *  beyond MAX_PLY, so that it still counts as one), or 0 for a
+     *  draw. */
+    static int tableValue(int code, int ply) {
+        if (code == 0) {
+            return 0;
+        }
+        int end = min(ply + Tablebase.distance(code), MAX_PLY - 1);
+        return Tablebase.isWin(code) ? WINNING_VALUE - end
+            : -WINNING_VALUE + end;
+    }
+
+    /** Return VALUE, a value found PLY plies below the root, as stored in
+     *  the transposition table, where wins are counted from the position
+     *  they were found in rather than from the root. */
+    private static int toTable(int value, int ply) {
+        if (value >= WILL_WIN_VALUE) {
+            return value + ply;
+        } else if (value <= -WILL_WIN_VALUE) {
+            return value - ply;
+        }
+        return value;
+    }
+
+    /** Return the value VALUE taken from the transposition table as seen
+     *  PLY plies below the root (the inverse of toTable). */
+    private static int fromTable(int value, int ply) {
+        if (value >= WILL_WIN_VALUE) {
+            return value - ply;
+        } else if (value <= -WILL_WIN_VALUE) {
+            return value + ply;
+        }
+        return value;
+    }
+
+    /** Set _stop if the current search has been asked to stop or has run
+     *  out of time or positions.  Never stops a search before it has
+     *  found a move. */
+    private void checkLimits() {
+        if (_bestMove != 0
+            && (_stopRequested || _nodeLimit > 0 && _nodes >= _nodeLimit
+                || System.currentTimeMillis() >= _deadline)) {
+            _stop = true;
+        }
+    }
+
+    /** Set SCORES[k] to the ordering score of MOVES[k], for k < COUNT,
+     *  for a search of BOARD PLY plies below the root.  In decreasing
+     *  order of score: HASHMOVE, then captures (by number of pieces
+     *  taken), then the killer moves for PLY, then the counter-move to
+     *  the last move on BOARD, then other moves by history score. */
+    private void scoreMoves(Board board, int[] moves, int[] scores,
+                            int count, int hashMove, int ply) {
+        int[] killers = _killers[ply];
+        int counter = _counterMoves[board.lastMove()];
+        int king = board.kingIndex();
+        Piece side = board.turn();
+        long preyLo = board.enPriseLo(side), preyHi = board.enPriseHi(side);
+        for (int k = 0; k < count; k += 1) {
+            int move = moves[k];
+            if (move == hashMove) {
+                scores[k] = HASH_SCORE;
+            } else if (board.isCapture(move)) {
+                scores[k] = CAPTURE_SCORE + Board.KING_EXCHANGE
+                    + board.exchange(move);
+            } else if (Move.from(move) == king
+                       && board.isCornerApproach(Move.to(move))) {
+                scores[k] = APPROACH_SCORE;
+            } else if (move == killers[0]) {
+                scores[k] = KILLER_SCORE;
+            } else if (move == killers[1]) {
+                scores[k] = KILLER_SCORE - 1;
+            } else if (move == counter) {
+                scores[k] = COUNTER_SCORE;
+            } else if (BitBoard.contains(preyLo, preyHi, Move.from(move))) {
+                scores[k] = EVASION_SCORE;
+            } else {
+                scores[k] = _history[move];
+            }
+        }
+    }
+
+    /** Move the highest-scored of MOVES[K .. COUNT-1] to MOVES[K],
+     *  exchanging SCORES in step, and return it. */
+    private static int nextMove(int[] moves, int[] scores, int k,
+                                int count) {
+        int best = k;
+        for (int j = k + 1; j < count; j += 1) {
+            if (scores[j] > scores[best]) {
+                best = j;
+            }
+        }
+        int move = moves[best], score = scores[best];
+        moves[best] = moves[k];
+        scores[best] = scores[k];
+        moves[k] = move;
+        scores[k] = score;
+        return move;
+    }
+
+    /** Record that MOVE caused a cutoff in a search of BOARD to DEPTH,
+     *  PLY plies below the root, crediting it in the killer, history, and
+     *  counter-move tables if it is quiet (captures nothing). */
+    private void recordCutoff(Board board, int move, int depth, int ply) {
+        if (board.isCapture(move)) {
+            return;
+        }
+        int[] killers = _killers[ply];
+        if (killers[0] != move) {
+            killers[1] = killers[0];
+            killers[0] = move;
+        }
+        _history[move] += depth * depth;
+        if (_history[move] >= HISTORY_LIMIT) {
+            ageHistory();
+        }
+        _counterMoves[board.lastMove()] = move;
+    }
+
+    /** Halve all history scores, so that recent cutoffs count for more. */
+    private void ageHistory() {
+        for (int m = 0; m < MOVE_CODES; m += 1) {
+            _history[m] >>= 1;
+        }
+    }
+
+    /** Return a heuristic value for BOARD: positive if it favors white
+     *  and negative if it favors black.  The value need only be exact if
+     *  it is strictly between ALPHA and BETA (see Evaluator). */
+    private static int staticScore(Board board, int alpha, int beta) {
+        if (board.winner() == WHITE) {
+            return WINNING_VALUE;
+        } else if (board.winner() == BLACK) {
+            return -WINNING_VALUE;
+        }
+        return Evaluator.score(board, alpha, beta);
+    }
+
+    /** Value of a piece. */
+    static final int PIECE_VALUE = 100;
+
+    /** Margin for positional gains in quiesce: a capture is skipped if the
+     *  static value plus the material it wins (by Board.exchange) plus
+     *  DELTA_MARGIN cannot exceed alpha. */
+    private static final int DELTA_MARGIN = 2 * PIECE_VALUE;
+
+    /** Null moves are tried at depths of at least NULL_MOVE_DEPTH, and
+     *  verified when at most VERIFY_PIECES black and white pieces
+     *  remain. */
+    private static final int NULL_MOVE_DEPTH = 3, VERIFY_PIECES = 8;
+
+    /** Quiet moves after the first LATE_MOVES are searched at reduced
+     *  depth first at depths of at least LMR_DEPTH. */
+    private static final int LATE_MOVES = 3, LMR_DEPTH = 3;
+
+    /** FUTILITY_MARGINS[d] is the most that a quiet move is assumed to
+     *  gain at depth D; quiet moves are skipped at depths below its
+     *  length when even that would leave the static value at or below
+     *  alpha. */
+    private static final int[] FUTILITY_MARGINS = {
+        0, PIECE_VALUE, 3 * PIECE_VALUE
+    };
+
+    /** Quiet moves that lose the moved piece by Board.exchange are skipped
+     *  at depths of at most EXCHANGE_DEPTH. */
+    private static final int EXCHANGE_DEPTH = 2;
+
+    /** Iterations of at least this depth start with an aspiration window
+     *  of ASPIRATION_WINDOW on either side of the previous value. */
+    private static final int ASPIRATION_DEPTH = 3,
+        ASPIRATION_WINDOW = PIECE_VALUE / 2;
+
+    /** Number of distinct move codes (see Move.code). */
+    private static final int MOVE_CODES = 1 << (2 * Move.SQUARE_BITS);
+
+    /** Ordering scores of the hash move, of captures (plus
+     *  Board.KING_EXCHANGE plus their value by Board.exchange), of king
+     *  moves threatening to reach a corner next (see
+     *  Board.isCornerApproach), of the first killer move (the second
+     *  scores 1 less), of the counter-move, and of other moves of pieces
+     *  that could be captured (see Board.enPriseLo).  History scores stay
+     *  below HISTORY_LIMIT, which is below all of these. */
+    private static final int HASH_SCORE = 1 << 30, CAPTURE_SCORE = 1 << 29,
+        APPROACH_SCORE = (1 << 28) + 1, KILLER_SCORE = 1 << 28,
+        COUNTER_SCORE = KILLER_SCORE - 2, EVASION_SCORE = COUNTER_SCORE - 1,
+        HISTORY_LIMIT = 1 << 20;
+
+    /** The search checks its limits whenever the number of positions it
+     *  has visited is a multiple of CHECK_MASK + 1. */
+    static final int CHECK_MASK = (1 << 10) - 1;
+
+}
@@ -0,0 +1,293 @@
+package tablut;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.lang.Math.*;
+
+import static tablut.Piece.*;
+import static tablut.Board.MAX_MOVES;
+import static tablut.Board.NEIGHBOR;
+
+/** A depth-first proof-number (df-pn) search that tries to prove that a
+ *  given side, the attacker, can force a win: white by bringing the king
+ *  to a corner, black by capturing it.  Each position has a proof
+ *  number (a lower bound on the number of positions still to be solved
+ *  to prove the win) and a disproof number (likewise, to refute it),
+ *  computed from those of its children; the search always expands the
+ *  most proving position, and stays below a position until its numbers
+ *  pass thresholds set by its parent, keeping the numbers in a hash
+ *  table of its own.
+ *
+ *  Only forcing moves of the attacker are considered: for white, king
+ *  moves and captures; for black, captures and moves next to the king.
+ *  All replies are considered.  Thus a proof is a genuine forced win,
+ *  but failure to find one proves nothing.  A line longer than the
+ *  depth limit counts as a failure.
+ *  @author Jeremy Ahn
+ */
+final class Solver {
+
+    /** Proof and disproof number of a position known to be won or
+     *  lost. */
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    /** Default longest line searched, in plies. */
+    static final int DEFAULT_DEPTH = 9;
+
+    /** Default number of entries in my hash table. */
+    static final int DEFAULT_TABLE_SIZE = 1 << 18;
+
+    /** DEPTH_KEYS[d] is XORed into the hashes of positions searched with
+     *  D plies remaining, so that results limited by the depth are only
+     *  reused at the same remaining depth. */
+    private static final long[] DEPTH_KEYS = new long[Search.MAX_PLY + 1];
+
+    static {
+        Random gen = new Random(0x5017E5L);
+        for (int d = 0; d < DEPTH_KEYS.length; d += 1) {
+            DEPTH_KEYS[d] = gen.nextLong();
+        }
+    }
+
+    /** A solver with a hash table of DEFAULT_TABLE_SIZE entries. */
+    Solver() {
+        this(DEFAULT_TABLE_SIZE);
+    }
+
+    /** A solver with a hash table of about SIZE entries (rounded down to a
+     *  power of 2). */
+    Solver(int size) {
+        int n = Integer.highestOneBit(max(1, size));
+        _keys = new long[n];
+        _proof = new int[n];
+        _disproof = new int[n];
+        _moves = new int[n];
+        _mask = n - 1;
+    }
+
+    /** Return true iff BOARD is worth solving: the king has an open line
+     *  to an edge, or at least two of its neighbors are black or the
+     *  throne. */
+    static boolean isCritical(Board board) {
+        int king = board.kingIndex();
+        if (king < 0 || board.winner() != null) {
+            return false;
+        }
+        int hostile = 0;
+        for (int d = 0; d < 4; d += 1) {
+            int n = NEIGHBOR[king][d];
+            if (n >= 0 && (board.get(Square.sq(n)) == BLACK
+                           || n == Board.THRONE.index())) {
+                hostile += 1;
+            }
+            while (n >= 0 && board.get(Square.sq(n)) == EMPTY) {
+                if (NEIGHBOR[n][d] < 0) {
+                    return true;
+                }
+                n = NEIGHBOR[n][d];
+            }
+        }
+        return hostile >= 2;
+    }
+
+    /** Try to prove that ATTACKER can force a win from POSITION, which is
+     *  not changed, in at most DEPTH plies, visiting at most NODELIMIT
+     *  positions.  Return the moves (Move codes) of a winning line, from
+     *  POSITION to the winning move, if one is found, and otherwise
+     *  null. */
+    int[] solve(Board position, Piece attacker, int depth, long nodeLimit) {
+        Arrays.fill(_keys, 0);
+        _board.copy(position);
+        _attacker = attacker;
+        _nodes = 0;
+        _nodeLimit = nodeLimit;
+        depth = min(depth, Search.MAX_PLY);
+        if (_buffers.length <= depth) {
+            _buffers = new int[depth + 1][MAX_MOVES];
+        }
+        search(depth, INFINITY, INFINITY);
+        if ((_board.turn() == attacker ? _proofNumber : _disproofNumber)
+            != 0) {
+            return null;
+        }
+        int[] line = new int[depth];
+        int n;
+        for (n = 0; n < depth && _board.winner() == null; n += 1) {
+            int entry = lookup(depth - n);
+            if (entry < 0) {
+                break;
+            }
+            line[n] = _moves[entry];
+            _board.makeMove(line[n]);
+        }
+        return _board.winner() == attacker ? Arrays.copyOf(line, n) : null;
+    }
+
+    /** Return the number of positions visited by the last solve. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Search the current position, which has DEPTH plies remaining,
+     *  until its proof number (for the side to move) reaches PROOFLIMIT
+     *  or its disproof number reaches DISPROOFLIMIT, or I run out of
+     *  positions.  Sets _proofNumber and _disproofNumber to the final
+     *  numbers and records them in my table. */
+    private void search(int depth, int proofLimit, int disproofLimit) {
+        _nodes += 1;
+        if (terminal(depth)) {
+            return;
+        }
+        int[] moves = _buffers[depth];
+        int n = forcingMoves(moves);
+        if (n == 0) {
+            _proofNumber = INFINITY;
+            _disproofNumber = 0;
+            store(depth, 0);
+            return;
+        }
+        int best = 0;
+        while (true) {
+            int proof = INFINITY, proof2 = INFINITY, disproof = 0,
+                bestDisproof = 0;
+            for (int k = 0; k < n; k += 1) {
+                _board.makeMove(moves[k]);
+                terminal(depth - 1);
+                _board.undo();
+                disproof = min(INFINITY, disproof + _proofNumber);
+                if (_disproofNumber < proof) {
+                    proof2 = proof;
+                    proof = _disproofNumber;
+                    best = k;
+                    bestDisproof = _proofNumber;
+                } else if (_disproofNumber < proof2) {
+                    proof2 = _disproofNumber;
+                }
+            }
+            if (proof >= proofLimit || disproof >= disproofLimit
+                || _nodes >= _nodeLimit) {
+                _proofNumber = proof;
+                _disproofNumber = disproof;
+                store(depth, best);
+                return;
+            }
+            _board.makeMove(moves[best]);
+            search(depth - 1,
+                   min(INFINITY, disproofLimit - disproof + bestDisproof),
+                   min(proofLimit, proof2 + 1));
+            _board.undo();
+        }
+    }
+
+    /** Set _proofNumber and _disproofNumber to the numbers of the current
+     *  position, which has DEPTH plies remaining: from the rules if the
+     *  game is over or DEPTH is 0 (when the attacker has failed), else
+     *  from my table, or else 1.  Return true iff the position is known
+     *  to be won or lost.  Positions decided by the rules are not
+     *  stored. */
+    private boolean terminal(int depth) {
+        Piece winner = _board.winner();
+        if (winner == null && depth > 0) {
+            if (lookup(depth) < 0) {
+                _proofNumber = _disproofNumber = 1;
+                return false;
+            }
+            return _proofNumber == 0 || _disproofNumber == 0;
+        }
+        boolean won = winner == null ? _board.turn() != _attacker
+            : winner == _board.turn();
+        _proofNumber = won ? 0 : INFINITY;
+        _disproofNumber = won ? INFINITY : 0;
+        return true;
+    }
+
+    /** Store the moves to be considered in the current position in MOVES
+     *  and return their number: all legal moves for the defender, and
+     *  only the forcing moves for the attacker, with captures and moves
+     *  that end the game first. */
+    private int forcingMoves(int[] moves) {
+        Piece side = _board.turn();
+        int n = _board.legalMoves(side, moves, 0);
+        if (side != _attacker) {
+            return n;
+        }
+        int king = _board.kingIndex();
+        int m = 0;
+        for (int k = 0; k < n; k += 1) {
+            int move = moves[k];
+            boolean capture = _board.isCapture(move);
+            if (capture || (side == WHITE ? Move.from(move) == king
+                            : isNeighbor(Move.to(move), king))) {
+                moves[k] = moves[m];
+                moves[m] = move;
+                if (capture && m > 0) {
+                    moves[m] = moves[0];
+                    moves[0] = move;
+                }
+                m += 1;
+            }
+        }
+        return m;
+    }
+
+    /** Return the index of the entry for the current position with DEPTH
+     *  plies remaining and set _proofNumber and _disproofNumber to its
+     *  numbers, or return -1 if there is no entry. */
+    private int lookup(int depth) {
+        long key = _board.hash() ^ DEPTH_KEYS[depth];
+        int i = (int) key & _mask;
+        if (_keys[i] != key || key == 0) {
+            return -1;
+        }
+        _proofNumber = _proof[i];
+        _disproofNumber = _disproof[i];
+        return i;
+    }
+
+    /** Record _proofNumber and _disproofNumber, and the move to try
+     *  first, which is entry BEST of _buffers[DEPTH], for the current
+     *  position with DEPTH plies remaining. */
+    private void store(int depth, int best) {
+        long key = _board.hash() ^ DEPTH_KEYS[depth];
+        int i = (int) key & _mask;
+        _keys[i] = key;
+        _proof[i] = _proofNumber;
+        _disproof[i] = _disproofNumber;
+        _moves[i] = _buffers[depth][best];
+    }
+
+    /** Return true iff square indices I and J are next to each other. */
+    private static boolean isNeighbor(int i, int j) {
+        for (int d = 0; d < 4; d += 1) {
+            if (NEIGHBOR[i][d] == j) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Hash keys of my table entries (0 for none). */
+    private final long[] _keys;
+    /** Proof numbers, for the side to move, of my table entries. */
+    private final int[] _proof;
+    /** Disproof numbers of my table entries. */
+    private final int[] _disproof;
+    /** Best moves (Move codes) of my table entries. */
+    private final int[] _moves;
+    /** The size of my table minus 1 (the size is a power of 2). */
+    private final int _mask;
+
+    /** The board searched. */
+    private final Board _board = new Board();
+    /** The side trying to prove a win. */
+    private Piece _attacker;
+    /** Move buffers, one for each remaining depth. */
+    private int[][] _buffers = new int[0][];
+    /** Positions visited by the current or last solve. */
+    private long _nodes;
+    /** Most positions to visit in one solve. */
+    private long _nodeLimit;
+    /** Results of search, terminal, and lookup. */
+    private int _proofNumber, _disproofNumber;
+}
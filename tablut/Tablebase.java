@@ -0,0 +1,682 @@
+package tablut;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static java.lang.Math.*;
+
+import static tablut.Piece.*;
+import static tablut.Square.NUM_SQUARES;
+import static tablut.Square.SIZE;
+import static tablut.Board.CORNER_INDICES;
+import static tablut.Board.MAX_MOVES;
+import static tablut.Board.NEIGHBOR;
+import static tablut.Board.THRONE_INDEX;
+
+/** An endgame table for one material class: the king, BLACKS black
+ *  pieces, and WHITES white pieces other than the king.  For each such
+ *  position and side to move, it records whether the side to move wins
+ *  or loses with best play and in how many plies, or neither (a draw,
+ *  with the position repeating forever).  The rules against repeated
+ *  positions and the move limit are ignored.
+ *
+ *  Positions are indexed up to the eight symmetries of the board: the
+ *  king is mapped into the triangle of 15 squares between a corner, the
+ *  throne, and the middle of an edge, the black pieces are numbered as a
+ *  combination of the other 80 squares, and the white piece as one of
+ *  the squares that remain.  Tables are built by retrograde analysis
+ *  (see generate) and saved in files of codes packed into as few bits
+ *  as the largest needs.  The files are mapped into memory when loaded,
+ *  so that a probe is a few arithmetic operations and a read from the
+ *  mapped file.
+ *
+ *  The tables loaded by load are used by probe, which the AI's search
+ *  calls on each position with few enough pieces.  Each caller supplies
+ *  its own scratch array, so that probes allocate nothing and searches
+ *  in several threads may probe at once.
+ *  @author Jeremy Ahn
+ */
+final class Tablebase {
+
+    /** Most black pieces in a table. */
+    static final int MAX_BLACKS = 3;
+
+    /** Most white pieces (other than the king) in a table. */
+    static final int MAX_WHITES = 1;
+
+    /** Length of the scratch arrays given to probe and index. */
+    static final int SCRATCH_SIZE = 2 * MAX_BLACKS;
+
+    /** Longest distance to a win or loss recorded, in plies.  Longer ones
+     *  are recorded as draws. */
+    static final int MAX_DISTANCE = 126;
+
+    /** Magic number at the start of each table file. */
+    private static final int MAGIC = 0x54424C31;
+
+    /** Bytes in the header of a table file: MAGIC, the numbers of black
+     *  and white pieces, and the bits per code. */
+    private static final int HEADER_BYTES = 8;
+
+    /** Number of squares in the triangle to which the king is mapped. */
+    private static final int TRIANGLE = 15;
+
+    /** TRANSFORM[t][i] is the image of square index I under symmetry T:
+     *  the board is transposed if bit 0 of T is set, then reflected left
+     *  to right if bit 1 is, and top to bottom if bit 2 is. */
+    private static final int[][] TRANSFORM = new int[8][NUM_SQUARES];
+
+    /** TRIANGLE_INDEX[i] is the position of square index I in the
+     *  triangle of squares whose column is at most their row, which is at
+     *  most 4 (SIZE / 2), or -1 if it is not in it.  TRIANGLE_SQUARE is
+     *  the inverse. */
+    private static final int[] TRIANGLE_INDEX = new int[NUM_SQUARES],
+        TRIANGLE_SQUARE = new int[TRIANGLE];
+
+    /** BINOMIAL[n][k] is n choose k. */
+    private static final long[][] BINOMIAL =
+        new long[NUM_SQUARES + 1][MAX_BLACKS + 2];
+
+    static {
+        for (int t = 0; t < 8; t += 1) {
+            for (int i = 0; i < NUM_SQUARES; i += 1) {
+                int c = i % SIZE, r = i / SIZE;
+                if ((t & 1) != 0) {
+                    int x = c;
+                    c = r;
+                    r = x;
+                }
+                if ((t & 2) != 0) {
+                    c = SIZE - 1 - c;
+                }
+                if ((t & 4) != 0) {
+                    r = SIZE - 1 - r;
+                }
+                TRANSFORM[t][i] = r * SIZE + c;
+            }
+        }
+        Arrays.fill(TRIANGLE_INDEX, -1);
+        int n = 0;
+        for (int r = 0; r <= SIZE / 2; r += 1) {
+            for (int c = 0; c <= r; c += 1) {
+                TRIANGLE_INDEX[r * SIZE + c] = n;
+                TRIANGLE_SQUARE[n] = r * SIZE + c;
+                n += 1;
+            }
+        }
+        for (int i = 0; i <= NUM_SQUARES; i += 1) {
+            BINOMIAL[i][0] = 1;
+            for (int k = 1; k < BINOMIAL[i].length; k += 1) {
+                BINOMIAL[i][k] = i == 0 ? 0
+                    : BINOMIAL[i - 1][k - 1] + BINOMIAL[i - 1][k];
+            }
+        }
+    }
+
+    /** An empty table for the king, BLACKS black pieces, and WHITES white
+     *  pieces. */
+    private Tablebase(int blacks, int whites) {
+        _blacks = blacks;
+        _whites = whites;
+        _combinations = BINOMIAL[NUM_SQUARES - 1][blacks];
+        _whiteSlots = whites == 0 ? 1 : NUM_SQUARES - 1 - blacks;
+        _size = TRIANGLE * _combinations * _whiteSlots * 2;
+    }
+
+    /** Return the number of positions (counting both sides to move) in
+     *  my index. */
+    long size() {
+        return _size;
+    }
+
+    /* Codes. */
+
+    /** Return the code for a win for the side to move in DISTANCE
+     *  plies. */
+    static int winCode(int distance) {
+        return 2 * distance - 1;
+    }
+
+    /** Return the code for a loss for the side to move in DISTANCE
+     *  plies. */
+    static int lossCode(int distance) {
+        return 2 * distance + 2;
+    }
+
+    /** Return true iff CODE is a win for the side to move. */
+    static boolean isWin(int code) {
+        return (code & 1) != 0;
+    }
+
+    /** Return true iff CODE is a loss for the side to move. */
+    static boolean isLoss(int code) {
+        return code != 0 && (code & 1) == 0;
+    }
+
+    /** Return the number of plies to the end of the game for CODE, a win
+     *  or loss. */
+    static int distance(int code) {
+        return isWin(code) ? (code + 1) / 2 : (code - 2) / 2;
+    }
+
+    /* Probing. */
+
+    /** Load all the table files in DIRECTORY, replacing any previously
+     *  loaded.  Missing tables are simply not used. */
+    static void load(File directory) throws IOException {
+        Tablebase[][] tables = new Tablebase[MAX_BLACKS + 1][MAX_WHITES + 1];
+        for (int b = 0; b <= MAX_BLACKS; b += 1) {
+            for (int w = 0; w <= MAX_WHITES; w += 1) {
+                File file = new File(directory, fileName(b, w));
+                if (file.isFile()) {
+                    tables[b][w] = map(file.toPath(), b, w);
+                }
+            }
+        }
+        _loaded = tables;
+    }
+
+    /** Return the code (see winCode, lossCode) for BOARD's position with
+     *  its side to move, or -1 if no loaded table covers it, using
+     *  SCRATCH (of length at least SCRATCH_SIZE) as scratch space. */
+    static int probe(Board board, int[] scratch) {
+        Tablebase[][] tables = _loaded;
+        if (tables == null) {
+            return -1;
+        }
+        int blacks = board.pieceCount(BLACK),
+            whites = board.pieceCount(WHITE);
+        if (blacks > MAX_BLACKS || whites > MAX_WHITES
+            || board.kingIndex() < 0 || board.winner() != null) {
+            return -1;
+        }
+        Tablebase table = tables[blacks][whites];
+        if (table == null) {
+            return -1;
+        }
+        return table.code(table.index(board, scratch));
+    }
+
+    /** Return the code for the position with index INDEX. */
+    int code(long index) {
+        if (_codes != null) {
+            return _codes[(int) index] & 0xFF;
+        }
+        long bit = index * _bits;
+        int at = HEADER_BYTES + (int) (bit >>> 3);
+        int word = (_data.get(at) & 0xFF) | (_data.get(at + 1) & 0xFF) << 8;
+        return (word >>> (bit & 7)) & ((1 << _bits) - 1);
+    }
+
+    /** Return the table mapped from the file at PATH, which should hold the
+     *  table for BLACKS black pieces and WHITES white ones. */
+    private static Tablebase map(Path path, int blacks, int whites)
+        throws IOException {
+        Tablebase table = new Tablebase(blacks, whites);
+        try (FileChannel channel = FileChannel.open(path,
+                                                    StandardOpenOption.READ)) {
+            ByteBuffer data =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+            int bits = data.get(6);
+            if (data.getInt(0) != MAGIC || data.get(4) != blacks
+                || data.get(5) != whites || bits < 1 || bits > 8
+                || channel.size()
+                   < HEADER_BYTES + (table._size * bits + 7) / 8 + 1) {
+                throw new IOException("bad table file: " + path);
+            }
+            table._data = data;
+            table._bits = bits;
+        }
+        return table;
+    }
+
+    /** Return the name of the file holding the table for BLACKS black
+     *  pieces and WHITES white pieces. */
+    static String fileName(int blacks, int whites) {
+        return String.format("k%dw%db.tbl", whites, blacks);
+    }
+
+    /* Indexing. */
+
+    /** Return the index of BOARD's position with its side to move, which
+     *  has the king and my numbers of pieces, using SCRATCH (of length
+     *  at least SCRATCH_SIZE) as scratch space.  Uses no scratch space of
+     *  mine, so that searches in several threads may probe me at once. */
+    long index(Board board, int[] scratch) {
+        for (int k = 0; k < _blacks; k += 1) {
+            scratch[k] = board.pieceSquare(BLACK, k);
+        }
+        return index(board.kingIndex(), scratch,
+                     _whites == 0 ? -1 : board.pieceSquare(WHITE, 0),
+                     board.turn());
+    }
+
+    /** Return the index of the position with the king on square index
+     *  KING, black pieces on the square indices in the first _blacks
+     *  entries of SQUARES, my white piece (if any) on WHITE, and SIDE to
+     *  move.  The next _blacks entries of SQUARES are scratch space.  Of
+     *  the symmetries that map the king into the triangle, uses the one
+     *  giving the smallest index, so that all symmetric positions get the
+     *  same index. */
+    private long index(int king, int[] squares, int white, Piece side) {
+        long best = Long.MAX_VALUE;
+        for (int t = 0; t < 8; t += 1) {
+            int[] map = TRANSFORM[t];
+            int k = map[king];
+            if (TRIANGLE_INDEX[k] < 0) {
+                continue;
+            }
+            for (int j = 0; j < _blacks; j += 1) {
+                int b = map[squares[j]], i;
+                for (i = _blacks + j; i > _blacks && squares[i - 1] > b;
+                     i -= 1) {
+                    squares[i] = squares[i - 1];
+                }
+                squares[i] = b;
+            }
+            long combination = 0;
+            int w = white < 0 ? 0 : map[white];
+            int below = w > k ? 1 : 0;
+            for (int j = 0; j < _blacks; j += 1) {
+                int b = squares[_blacks + j];
+                combination += BINOMIAL[b > k ? b - 1 : b][j + 1];
+                below += w > b ? 1 : 0;
+            }
+            long index = ((TRIANGLE_INDEX[k] * _combinations + combination)
+                          * _whiteSlots + (white < 0 ? 0 : w - below)) * 2
+                + (side == WHITE ? 1 : 0);
+            best = min(best, index);
+        }
+        return best;
+    }
+
+    /** Set up BOARD with the position with index INDEX (not necessarily
+     *  the smallest index of the position), which must be less than
+     *  size().  Uses my scratch space, so it must not be called while I
+     *  am being generated or by several threads at once. */
+    void decode(long index, Board board) {
+        decode(index);
+        setUp(board);
+    }
+
+    /** Set _king, _pieces, _white, and _side to the position with index
+     *  INDEX (not necessarily the smallest index of the position). */
+    private void decode(long index) {
+        _side = (index & 1) == 0 ? BLACK : WHITE;
+        index >>>= 1;
+        long whiteRank = index % _whiteSlots;
+        index /= _whiteSlots;
+        long combination = index % _combinations;
+        _king = TRIANGLE_SQUARE[(int) (index / _combinations)];
+        for (int j = _blacks - 1; j >= 0; j -= 1) {
+            int r = j;
+            while (BINOMIAL[r + 1][j + 1] <= combination) {
+                r += 1;
+            }
+            combination -= BINOMIAL[r][j + 1];
+            _pieces[j] = r >= _king ? r + 1 : r;
+        }
+        _white = -1;
+        if (_whites > 0) {
+            for (int i = 0; i < NUM_SQUARES; i += 1) {
+                if (i != _king && !isBlack(i)) {
+                    if (whiteRank == 0) {
+                        _white = i;
+                        break;
+                    }
+                    whiteRank -= 1;
+                }
+            }
+        }
+    }
+
+    /** Return true iff square index I is one of the first _blacks entries
+     *  of _pieces. */
+    private boolean isBlack(int i) {
+        for (int j = 0; j < _blacks; j += 1) {
+            if (_pieces[j] == i) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Generation. */
+
+    /** Build the table for BLACKS black and WHITES white pieces, given the
+     *  tables in LOWER for all smaller numbers of either, by retrograde
+     *  analysis.  Each position is first classified by its moves: with no
+     *  moves, it is lost at once; a move that wins, or that captures into
+     *  a position lost for the opponent in the smaller table, makes it a
+     *  win; otherwise, it counts its distinct successors that keep all
+     *  the pieces.  Then, in order of increasing distance, each position
+     *  found lost makes its predecessors won, and each position found
+     *  won reduces the counts of its predecessors, which are lost when
+     *  their counts reach 0 (and none of their captures escapes).  What
+     *  remains is drawn. */
+    static Tablebase generate(int blacks, int whites, Tablebase[][] lower) {
+        Tablebase table = new Tablebase(blacks, whites);
+        table.solve(lower);
+        return table;
+    }
+
+    /** Fill in my codes, as for generate(_blacks, _whites, LOWER). */
+    private void solve(Tablebase[][] lower) {
+        if (_size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("table too large");
+        }
+        int size = (int) _size;
+        _codes = new byte[size];
+        byte[] counts = new byte[size];
+        byte[] exits = new byte[size];
+        int[] moves = new int[MAX_MOVES];
+        long[] found = new long[MAX_MOVES];
+        for (int p = 0; p < size; p += 1) {
+            decode(p);
+            System.arraycopy(_pieces, 0, _scratch, 0, _blacks);
+            if (!valid() || index(_king, _scratch, _white, _side) != p) {
+                continue;
+            }
+            setUp(_board);
+            int n = _board.legalMoves(_side, moves, 0);
+            if (n == 0) {
+                enqueue(0, p, false);
+                continue;
+            }
+            int win = Integer.MAX_VALUE, loss = 0, kept = 0;
+            boolean drawn = false;
+            for (int k = 0; k < n; k += 1) {
+                _board.makeMove(moves[k]);
+                if (_board.winner() == _side) {
+                    win = 1;
+                } else if (_board.pieceCount(BLACK) == _blacks
+                           && _board.pieceCount(WHITE) == _whites) {
+                    found[kept] = index(_board, _scratch);
+                    kept += 1;
+                } else {
+                    int code = lower[_board.pieceCount(BLACK)]
+                        [_board.pieceCount(WHITE)].probeLower(_board,
+                                                              _scratch);
+                    if (isLoss(code)) {
+                        win = min(win, distance(code) + 1);
+                    } else if (isWin(code)) {
+                        loss = max(loss, distance(code) + 1);
+                    } else {
+                        drawn = true;
+                    }
+                }
+                _board.undo();
+            }
+            counts[p] = (byte) distinct(found, kept);
+            if (win <= MAX_DISTANCE) {
+                exits[p] = -1;
+                enqueue(win, p, true);
+            } else if (drawn || loss > MAX_DISTANCE) {
+                exits[p] = -1;
+            } else {
+                exits[p] = (byte) loss;
+                if (counts[p] == 0) {
+                    enqueue(loss, p, false);
+                }
+            }
+        }
+        for (int d = 0; d <= MAX_DISTANCE; d += 1) {
+            for (int e = 0; e < _queueSizes[d]; e += 1) {
+                int p = _queues[d][e] >>> 1;
+                boolean win = (_queues[d][e] & 1) != 0;
+                if (_codes[p] != 0) {
+                    continue;
+                }
+                _codes[p] = (byte) (win ? winCode(d) : lossCode(d));
+                int n = predecessors(p, found);
+                for (int k = 0; k < n; k += 1) {
+                    int q = (int) found[k];
+                    if (_codes[q] != 0 || d == MAX_DISTANCE) {
+                        continue;
+                    } else if (!win) {
+                        enqueue(d + 1, q, true);
+                    } else {
+                        counts[q] -= 1;
+                        if (counts[q] == 0 && exits[q] >= 0) {
+                            enqueue(max(d + 1, exits[q]), q, false);
+                        }
+                    }
+                }
+            }
+            _queues[d] = null;
+        }
+    }
+
+    /** Return the code for BOARD's position from this table, which is
+     *  being used to build a larger one, using SCRATCH as for index. */
+    private int probeLower(Board board, int[] scratch) {
+        if (board.winner() != null) {
+            return board.winner() == board.turn() ? winCode(0) : lossCode(0);
+        }
+        return code(index(board, scratch));
+    }
+
+    /** Return true iff the position in _king, _pieces, _white, and _side
+     *  can occur: only the king may be on the throne, and the game is not
+     *  over (the king is not on a corner). */
+    private boolean valid() {
+        if (isCorner(_king) || _white == THRONE_INDEX) {
+            return false;
+        }
+        for (int j = 0; j < _blacks; j += 1) {
+            if (_pieces[j] == THRONE_INDEX) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Set up BOARD with the position in _king, _pieces, _white, and
+     *  _side. */
+    private void setUp(Board board) {
+        for (int k = 0; k < NUM_SQUARES; k += 1) {
+            if (board.get(Square.sq(k)) != EMPTY) {
+                board.put(EMPTY, Square.sq(k));
+            }
+        }
+        board.put(KING, Square.sq(_king));
+        for (int j = 0; j < _blacks; j += 1) {
+            board.put(BLACK, Square.sq(_pieces[j]));
+        }
+        if (_white >= 0) {
+            board.put(WHITE, Square.sq(_white));
+        }
+        board.setTurn(_side);
+    }
+
+    /** Store the distinct indices of the positions from which the
+     *  opponent of the side to move could have reached position P by a
+     *  move capturing nothing at the start of PREDECESSORS, and return
+     *  their number. */
+    private int predecessors(int p, long[] predecessors) {
+        decode(p);
+        setUp(_board);
+        Piece mover = _side.opponent();
+        int n = 0;
+        for (int k = 0; k < NUM_SQUARES; k += 1) {
+            Piece piece = _board.get(Square.sq(k));
+            if (piece.side() != mover) {
+                continue;
+            }
+            for (int d = 0; d < 4; d += 1) {
+                for (int from = NEIGHBOR[k][d];
+                     from >= 0 && _board.get(Square.sq(from)) == EMPTY;
+                     from = NEIGHBOR[from][d]) {
+                    if (piece == KING ? isCorner(from)
+                        : from == THRONE_INDEX) {
+                        continue;
+                    }
+                    _board.put(EMPTY, Square.sq(k));
+                    _board.put(piece, Square.sq(from));
+                    _board.setTurn(mover);
+                    if (_board.isLegal(Square.sq(from), Square.sq(k))
+                        && !_board.isCapture(Move.code(from, k))) {
+                        predecessors[n] = index(_board, _scratch);
+                        n += 1;
+                    }
+                    _board.put(EMPTY, Square.sq(from));
+                    _board.put(piece, Square.sq(k));
+                }
+            }
+        }
+        _board.setTurn(_side);
+        return distinct(predecessors, n);
+    }
+
+    /** Sort the first N entries of VALUES, move the distinct ones to the
+     *  front, and return their number. */
+    private static int distinct(long[] values, int n) {
+        Arrays.sort(values, 0, n);
+        int m = 0;
+        for (int k = 0; k < n; k += 1) {
+            if (m == 0 || values[k] != values[m - 1]) {
+                values[m] = values[k];
+                m += 1;
+            }
+        }
+        return m;
+    }
+
+    /** Add position P to the queue of positions at DISTANCE, as a win for
+     *  the side to move iff WIN. */
+    private void enqueue(int distance, int p, boolean win) {
+        if (_queueSizes[distance] == _queues[distance].length) {
+            _queues[distance] = Arrays.copyOf(_queues[distance],
+                                              2 * _queueSizes[distance]);
+        }
+        _queues[distance][_queueSizes[distance]] = p << 1 | (win ? 1 : 0);
+        _queueSizes[distance] += 1;
+    }
+
+    /** Return true iff square index I is a corner. */
+    private static boolean isCorner(int i) {
+        for (int corner : CORNER_INDICES) {
+            if (i == corner) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Write me to FILE: a header, then my codes packed into as few
+     *  bits each as the largest needs. */
+    private void write(File file) throws IOException {
+        int maxCode = 1;
+        for (byte code : _codes) {
+            maxCode = max(maxCode, code & 0xFF);
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(maxCode);
+        ByteBuffer data = ByteBuffer
+            .allocate(HEADER_BYTES + (int) ((_size * bits + 7) / 8) + 1)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(0, MAGIC);
+        data.put(4, (byte) _blacks);
+        data.put(5, (byte) _whites);
+        data.put(6, (byte) bits);
+        for (long i = 0; i < _size; i += 1) {
+            long bit = i * bits;
+            int at = HEADER_BYTES + (int) (bit >>> 3);
+            int word = (_codes[(int) i] & 0xFF) << (bit & 7);
+            data.put(at, (byte) (data.get(at) | word));
+            data.put(at + 1, (byte) (data.get(at + 1) | word >>> 8));
+        }
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.WRITE)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /** Generate the tables for the king with up to BLACKS black pieces
+     *  and WHITES white ones (default 3 and 0) into DIRECTORY, as
+     *  ARGS[0] DIRECTORY [BLACKS [WHITES]]. */
+    public static void main(String... args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: java tablut.Tablebase DIRECTORY"
+                               + " [BLACKS [WHITES]]");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        int blacks = args.length > 1 ? Integer.parseInt(args[1]) : MAX_BLACKS;
+        int whites = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        if (blacks < 0 || blacks > MAX_BLACKS || whites < 0
+            || whites > MAX_WHITES) {
+            System.err.printf("At most %d black and %d white pieces.%n",
+                              MAX_BLACKS, MAX_WHITES);
+            System.exit(1);
+        }
+        directory.mkdirs();
+        Tablebase[][] tables = new Tablebase[MAX_BLACKS + 1][MAX_WHITES + 1];
+        for (int w = 0; w <= whites; w += 1) {
+            for (int b = 0; b <= blacks; b += 1) {
+                long start = System.currentTimeMillis();
+                Tablebase table = generate(b, w, tables);
+                tables[b][w] = table;
+                table.write(new File(directory, fileName(b, w)));
+                int[] counts = new int[3];
+                for (byte code : table._codes) {
+                    counts[code == 0 ? 0 : isWin(code & 0xFF) ? 1 : 2] += 1;
+                }
+                System.out.printf("%s: %d positions, %d won, %d lost,"
+                                  + " %d ms%n", fileName(b, w), table._size,
+                                  counts[1], counts[2],
+                                  System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /** Tables loaded by load, indexed by numbers of black and white
+     *  pieces, or null. */
+    private static volatile Tablebase[][] _loaded;
+
+    /** Numbers of black and white pieces other than the king. */
+    private final int _blacks, _whites;
+    /** Number of combinations of squares for the black pieces. */
+    private final long _combinations;
+    /** Number of squares for the white piece (1 if there is none). */
+    private final long _whiteSlots;
+    /** Number of indices. */
+    private final long _size;
+
+    /** The mapped table file, or null while generating. */
+    private ByteBuffer _data;
+    /** Bits per code in _data. */
+    private int _bits;
+    /** The codes, one per byte, while generating; otherwise null. */
+    private byte[] _codes;
+
+    /** Squares of the black pieces in the position last decoded, used
+     *  only while generating. */
+    private final int[] _pieces = new int[MAX_BLACKS];
+    /** Scratch space for indexing while generating; probes supply
+     *  their own. */
+    private final int[] _scratch = new int[SCRATCH_SIZE];
+    /** The position last decoded: king and white squares (-1 for none)
+     *  and side to move. */
+    private int _king, _white;
+    /** Side to move in the position last decoded. */
+    private Piece _side;
+    /** Board for generation. */
+    private final Board _board = new Board();
+    /** _queues[d] lists positions at distance D for generation, each as
+     *  its index times 2, plus 1 if it is won; _queueSizes[d] is the
+     *  number in use. */
+    private final int[][] _queues = new int[MAX_DISTANCE + 1][16];
+    /** Numbers of positions in each of _queues. */
+    private final int[] _queueSizes = new int[MAX_DISTANCE + 1];
+}
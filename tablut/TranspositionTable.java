@@ -0,0 +1,204 @@
+package tablut;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/** A fixed-size hash table of search results, keyed by the 64-bit
+ *  position hashes of Board.hash().  Each entry is two longs: the data
+ *  (best move, depth, bound type, generation, and score, packed as
+ *  described below) and the key XORed with the data.  A probe
+ *  accepts an entry only if the two words XOR back to the key, so
+ *  several threads may read and write the table without locks: a torn or
+ *  interleaved write simply reads as a miss.
+ *
+ *  Entries are grouped in buckets of two.  The first slot of a bucket
+ *  prefers deep results and is overwritten only by searches at least as
+ *  deep or when its entry is from an older search (generation); the
+ *  second is always replaced.  The table may live on the Java heap or,
+ *  for large sizes, in direct (off-heap) buffers that the garbage
+ *  collector need not scan.
+ *  @author Jeremy Ahn
+ */
+final class TranspositionTable {
+
+    /** Bound types: the stored score is exact, a lower bound (the search
+     *  failed high), or an upper bound (it failed low).  Zero marks an
+     *  empty entry. */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** Longs in one bucket. */
+    private static final int BUCKET_LONGS = 4;
+
+    /** Layout of the data word, from the low bits up: MOVE_BITS of move
+     *  code (see Move.code; 0 for none), DEPTH_BITS of depth, BOUND_BITS
+     *  of bound type, GEN_BITS of generation, and the score in the upper
+     *  32 bits. */
+    private static final int MOVE_BITS = 2 * Move.SQUARE_BITS,
+        DEPTH_BITS = 8, BOUND_BITS = 2, GEN_BITS = 6,
+        DEPTH_SHIFT = MOVE_BITS,
+        BOUND_SHIFT = DEPTH_SHIFT + DEPTH_BITS,
+        GEN_SHIFT = BOUND_SHIFT + BOUND_BITS,
+        SCORE_SHIFT = 32;
+
+    /** Largest depth that can be stored. */
+    static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+
+    /** Number of longs in each off-heap chunk, as a power of 2. */
+    private static final int CHUNK_BITS = 27;
+
+    /** A table occupying at most SIZE bytes (and at least one bucket),
+     *  allocated off the Java heap iff OFFHEAP. */
+    TranspositionTable(long size, boolean offHeap) {
+        long buckets = Long.highestOneBit(
+            Math.max(1, size / (BUCKET_LONGS * Long.BYTES)));
+        _mask = buckets - 1;
+        long longs = buckets * BUCKET_LONGS;
+        if (offHeap) {
+            _heap = null;
+            int chunkLongs = (int) Math.min(longs, 1L << CHUNK_BITS);
+            _chunks = new LongBuffer[(int) (longs / chunkLongs)];
+            for (int k = 0; k < _chunks.length; k += 1) {
+                _chunks[k] = ByteBuffer.allocateDirect(chunkLongs * Long.BYTES)
+                    .order(ByteOrder.nativeOrder()).asLongBuffer();
+            }
+        } else {
+            if (longs > Integer.MAX_VALUE - BUCKET_LONGS) {
+                throw new IllegalArgumentException("hash table too large"
+                                                   + " for the heap");
+            }
+            _heap = new long[(int) longs];
+            _chunks = null;
+        }
+    }
+
+    /** Return the number of entries I can hold. */
+    long capacity() {
+        return (_mask + 1) * 2;
+    }
+
+    /** Begin a new search: entries stored before now become preferred
+     *  for replacement. */
+    void newSearch() {
+        _generation = (_generation + 1) & ((1 << GEN_BITS) - 1);
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        for (long i = 0; i < (_mask + 1) * BUCKET_LONGS; i += 1) {
+            set(i, 0L);
+        }
+    }
+
+    /** Return the data word stored for position KEY, or 0 if there is
+     *  none.  Decode it with move, depth, bound, and score. */
+    long probe(long key) {
+        long i = (key & _mask) * BUCKET_LONGS;
+        for (int slot = 0; slot < 2; slot += 1, i += 2) {
+            long data = get(i + 1);
+            if (data != 0 && (get(i) ^ data) == key) {
+                return data;
+            }
+        }
+        return 0L;
+    }
+
+    /** Record that a search of position KEY to DEPTH produced SCORE with
+     *  bound type BOUND and best move MOVE (a Move code, or 0 if none). */
+    void store(long key, int depth, int bound, int score, int move) {
+        long i = (key & _mask) * BUCKET_LONGS;
+        long data0 = get(i + 1);
+        boolean same0 = data0 != 0 && (get(i) ^ data0) == key;
+        long data1 = get(i + 3);
+        boolean same1 = data1 != 0 && (get(i + 2) ^ data1) == key;
+        boolean deep = data0 == 0 || generation(data0) != _generation
+            || depth >= depth(data0) || (same0 && bound == EXACT);
+        long slot = deep ? i : i + 2;
+        long old = deep ? (same0 ? data0 : 0L) : (same1 ? data1 : 0L);
+        if (move == 0 && old != 0) {
+            move = move(old);
+        }
+        long data = pack(Math.min(depth, MAX_DEPTH), bound, score, move);
+        set(slot, key ^ data);
+        set(slot + 1, data);
+    }
+
+    /** Return word WORD of slot SLOT (each 0 or 1) of the bucket for
+     *  position KEY: the key XORed with the data if WORD is 0, and the
+     *  data if it is 1. */
+    long slotWord(long key, int slot, int word) {
+        return get((key & _mask) * BUCKET_LONGS + 2 * slot + word);
+    }
+
+    /** Set word WORD of slot SLOT of the bucket for position KEY, as for
+     *  slotWord, to V.  Only for tests, which use it to leave a slot as
+     *  a torn write would. */
+    void setSlotWord(long key, int slot, int word, long v) {
+        set((key & _mask) * BUCKET_LONGS + 2 * slot + word, v);
+    }
+
+    /** Return the best move (a Move code, 0 if none) in DATA. */
+    static int move(long data) {
+        return (int) data & ((1 << MOVE_BITS) - 1);
+    }
+
+    /** Return the search depth in DATA. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & ((1 << DEPTH_BITS) - 1);
+    }
+
+    /** Return the bound type (EXACT, LOWER, or UPPER) in DATA. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & ((1 << BOUND_BITS) - 1);
+    }
+
+    /** Return the score in DATA. */
+    static int score(long data) {
+        return (int) (data >> SCORE_SHIFT);
+    }
+
+    /** Return the generation in DATA. */
+    private static int generation(long data) {
+        return (int) (data >>> GEN_SHIFT) & ((1 << GEN_BITS) - 1);
+    }
+
+    /** Return the data word for DEPTH, BOUND, SCORE, and MOVE in the
+     *  current generation. */
+    private long pack(int depth, int bound, int score, int move) {
+        return ((long) score << SCORE_SHIFT)
+            | ((long) _generation << GEN_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | ((long) depth << DEPTH_SHIFT)
+            | move;
+    }
+
+    /** Return the Ith long of the table. */
+    private long get(long i) {
+        if (_heap != null) {
+            return _heap[(int) i];
+        }
+        return _chunks[(int) (i >>> CHUNK_BITS)]
+            .get((int) (i & ((1L << CHUNK_BITS) - 1)));
+    }
+
+    /** Set the Ith long of the table to V. */
+    private void set(long i, long v) {
+        if (_heap != null) {
+            _heap[(int) i] = v;
+        } else {
+            _chunks[(int) (i >>> CHUNK_BITS)]
+                .put((int) (i & ((1L << CHUNK_BITS) - 1)), v);
+        }
+    }
+
+    /** Storage when on the heap; otherwise null. */
+    private final long[] _heap;
+    /** Storage when off the heap, in chunks of 2**CHUNK_BITS longs (or
+     *  one smaller chunk); otherwise null. */
+    private final LongBuffer[] _chunks;
+    /** Number of buckets minus 1 (the number of buckets is a power of
+     *  2). */
+    private final long _mask;
+    /** Generation of the current search. */
+    private volatile int _generation;
+}
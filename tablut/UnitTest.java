@@ -0,0 +1,1203 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import ucb.junit.textui;
+
+import static org.junit.Assert.*;
+
+import static tablut.Piece.*;
+import static tablut.Search.INFTY;
+import static tablut.Square.NUM_SQUARES;
+import static tablut.Square.SIZE;
+import static tablut.Square.sq;
+
+/** The suite of all JUnit tests for the tablut package: cross-checks of
+ *  Board's table-driven rules and incremental state against direct
+ *  implementations, and positions for the special cases of the rules.
+ *  @author Jeremy Ahn
+ */
+public class UnitTest {
+
+    /** Run the JUnit tests in this package. */
+    public static void main(String[] ignored) {
+        System.exit(textui.runClasses(UnitTest.class));
+    }
+
+    /** Number of random games played by each randomized test. */
+    private static final int GAMES = 20;
+
+    /** Longest random game, in moves. */
+    private static final int GAME_LENGTH = 120;
+
+    /** Number of positions probed in the endgame tables. */
+    private static final int PROBES = 2000;
+
+    /** Number of positions searched by each test of a search. */
+    private static final int SEARCHES = 4;
+
+    /** Most positions visited by each Solver.solve in the tests. */
+    private static final long SOLVE_LIMIT = 100000;
+
+    /** The endgame tables built by tables(), or null. */
+    private static Tablebase[][] _tables;
+
+    /** Check Move.mv(String) and Move.isGrammaticalMove on valid and
+     *  invalid moves, and that they accept exactly the strings that
+     *  Move.MOVE_PATTERN matches, among all four-character strings over
+     *  an alphabet including the characters just outside each range. */
+    @Test
+    public void testParseMoves() {
+        String[][] valid = {
+            { "e5-9", "e5", "e9" }, { "a1-i", "a1", "i1" },
+            { "i9-1", "i9", "i1" }, { "c7-a", "c7", "a7" },
+        };
+        for (String[] move : valid) {
+            Move mv = Move.mv(move[0]);
+            assertNotNull(move[0], mv);
+            assertEquals(move[0], sq(move[1]), mv.from());
+            assertEquals(move[0], sq(move[2]), mv.to());
+            assertEquals(move[0], mv.toString());
+        }
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            for (int d = 0; d < 4; d += 1) {
+                for (Move mv : Move.ROOK_MOVES[i][d]) {
+                    assertSame(mv, Move.mv(mv.toString()));
+                }
+            }
+        }
+        String[] invalid = {
+            "e5-e", "e5-5", "e5-j", "e5-0", "j5-e", "e0-e", "e5e9", "e5-e9",
+            "e5-", "E5-e", "e5-E", "", null,
+        };
+        for (String move : invalid) {
+            assertNull(move, Move.mv(move));
+            assertFalse(move, Move.isGrammaticalMove(move));
+        }
+        String alphabet = "`aeij0159:-A";
+        char[] chars = new char[4];
+        int count = 0;
+        for (int k = 0; k < Math.pow(alphabet.length(), 4); k += 1) {
+            for (int j = 0, n = k; j < 4; j += 1, n /= alphabet.length()) {
+                chars[j] = alphabet.charAt(n % alphabet.length());
+            }
+            String str = new String(chars);
+            boolean matches = Move.MOVE_PATTERN.matcher(str).matches();
+            assertEquals(str, matches, Move.isGrammaticalMove(str));
+            assertEquals(str, matches, Move.mv(str) != null);
+            count += matches ? 1 : 0;
+        }
+        assertTrue(count > 0);
+    }
+
+    /** Check that every legal move in positions from random games
+     *  captures exactly the pieces that the rules, applied square by
+     *  square, say it does, and that captures() and isCapture() agree. */
+    @Test
+    public void testCapturesMatchRules() {
+        Random gen = new Random(7);
+        int[] moves = new int[Board.MAX_MOVES];
+        int checked = 0;
+        for (int g = 0; g < GAMES; g += 1) {
+            Board board = new Board();
+            while (board.winner() == null
+                   && board.moveCount() < GAME_LENGTH) {
+                int n = board.legalMoves(board.turn(), moves, 0);
+                for (int k = 0; k < n; k += 1) {
+                    int move = moves[k];
+                    List<Integer> expected = expectedCaptures(board, move);
+                    String msg = Move.from(move) + "-" + Move.to(move)
+                        + " on\n" + board;
+                    assertEquals(msg, expected.size(), board.captures(move));
+                    assertEquals(msg, !expected.isEmpty(),
+                                 board.isCapture(move));
+                    String before = snapshot(board);
+                    board.makeMove(move);
+                    assertEquals(msg, expected, removed(board, before, move));
+                    board.undo();
+                    assertEquals(msg, before, snapshot(board));
+                    checked += 1;
+                }
+                board.makeMove(moves[gen.nextInt(n)]);
+            }
+        }
+        assertTrue(checked > 0);
+    }
+
+    /** Check that undoing runs of moves from random games restores the
+     *  position, hash, piece lists, and bit masks exactly, and that the
+     *  incrementally kept hash always equals that of the same position
+     *  set up from scratch. */
+    @Test
+    public void testMakeUndoRoundTrip() {
+        Random gen = new Random(11);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int g = 0; g < GAMES; g += 1) {
+            Board board = new Board();
+            List<String> path = new ArrayList<>();
+            while (board.winner() == null
+                   && board.moveCount() < GAME_LENGTH) {
+                path.add(snapshot(board));
+                int n = board.legalMoves(board.turn(), moves, 0);
+                board.makeMove(moves[gen.nextInt(n)]);
+                assertEquals(rebuilt(board).hash(), board.hash());
+                if (gen.nextInt(4) == 0) {
+                    int back = 1 + gen.nextInt(path.size());
+                    for (int k = 0; k < back; k += 1) {
+                        board.undo();
+                        String expected = path.remove(path.size() - 1);
+                        assertEquals(expected, snapshot(board));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Check that null moves, and moves searched after them, leave no
+     *  trace in the history used to detect repeated positions: a move
+     *  after a null move is a repetition only if its position repeats one
+     *  of the real game, and undoing both leaves the board as it was. */
+    @Test
+    public void testNullMovesLeaveNoHistory() {
+        Random gen = new Random(13);
+        int[] moves = new int[Board.MAX_MOVES];
+        int repeats = 0;
+        for (int g = 0; g < GAMES; g += 1) {
+            Board board = new Board(), plain = new Board();
+            List<String> seen = new ArrayList<>();
+            seen.add(board.encodedBoard().substring(1));
+            while (board.winner() == null
+                   && board.moveCount() < GAME_LENGTH) {
+                board.makeNullMove();
+                int n = board.legalMoves(board.turn(), moves, 0);
+                if (n > 0) {
+                    board.makeMove(moves[gen.nextInt(n)]);
+                    boolean repeat =
+                        seen.contains(board.encodedBoard().substring(1));
+                    assertEquals(repeat, board.repeatedPosition());
+                    repeats += repeat ? 1 : 0;
+                    board.undo();
+                }
+                board.undo();
+                n = board.legalMoves(board.turn(), moves, 0);
+                int move = moves[gen.nextInt(Math.min(n, 4))];
+                board.makeMove(move);
+                plain.makeMove(move);
+                seen.add(board.encodedBoard().substring(1));
+                assertEquals(plain.repeatedPosition(),
+                             board.repeatedPosition());
+                assertEquals(snapshot(plain), snapshot(board));
+            }
+        }
+        assertTrue(repeats > 0);
+    }
+
+    /** Check that the empty throne is hostile to both sides, and that the
+     *  occupied throne is hostile to white only when three squares next
+     *  to it are black. */
+    @Test
+    public void testThroneCaptures() {
+        Board board = position(BLACK, "Kh2", "We6", "Bc7");
+        board.makeMove(sq("c7"), sq("e7"));
+        assertEquals(EMPTY, board.get(sq("e6")));
+
+        board = position(WHITE, "Kh2", "Be6", "Wc7");
+        board.makeMove(sq("c7"), sq("e7"));
+        assertEquals(EMPTY, board.get(sq("e6")));
+
+        board = position(BLACK, "Ke5", "We6", "Bd5", "Bf5", "Bc7");
+        board.makeMove(sq("c7"), sq("e7"));
+        assertEquals(WHITE, board.get(sq("e6")));
+
+        board = position(BLACK, "Ke5", "We6", "Bd5", "Bf5", "Be4", "Bc7");
+        board.makeMove(sq("c7"), sq("e7"));
+        assertEquals(EMPTY, board.get(sq("e6")));
+
+        board = position(WHITE, "Ke5", "Be6", "Wc7");
+        board.makeMove(sq("c7"), sq("e7"));
+        assertEquals(EMPTY, board.get(sq("e6")));
+    }
+
+    /** Check that the king on or next to the throne is captured only when
+     *  surrounded on all sides by black or the empty throne, and
+     *  elsewhere like any other piece. */
+    @Test
+    public void testKingGuardCaptures() {
+        Board board = position(BLACK, "Ke5", "Bd5", "Bf5", "Be4", "Bc6");
+        board.makeMove(sq("c6"), sq("e6"));
+        assertEquals(BLACK, board.winner());
+        assertEquals(-1, board.kingIndex());
+        board.undo();
+        assertEquals(KING, board.get(sq("e5")));
+        assertNull(board.winner());
+
+        board = position(BLACK, "Ke5", "Bd5", "Bf5", "We4", "Bc6");
+        board.makeMove(sq("c6"), sq("e6"));
+        assertNull(board.winner());
+
+        board = position(BLACK, "Ke6", "Bd6", "Bf6", "Bc7");
+        board.makeMove(sq("c7"), sq("e7"));
+        assertEquals(BLACK, board.winner());
+
+        board = position(BLACK, "Ke6", "Bd6", "Bc7");
+        board.makeMove(sq("c7"), sq("e7"));
+        assertNull(board.winner());
+
+        board = position(BLACK, "Kc3", "Bb3", "Bd1");
+        board.makeMove(sq("d1"), sq("d3"));
+        assertEquals(BLACK, board.winner());
+    }
+
+    /** Check that a piece may move between two enemy pieces without
+     *  being captured, and that one move can capture three pieces. */
+    @Test
+    public void testSandwiches() {
+        Board board = position(WHITE, "Kh2", "Bc3", "Be3", "Wd5");
+        board.makeMove(sq("d5"), sq("d3"));
+        assertEquals(WHITE, board.get(sq("d3")));
+        assertEquals(BLACK, board.get(sq("c3")));
+
+        board = position(BLACK, "Kh2", "Wc4", "Bb4", "We4", "Bf4",
+                         "Wd5", "Bd6", "Bd1");
+        board.makeMove(sq("d1"), sq("d4"));
+        assertEquals(BLACK, board.get(sq("d4")));
+        assertEquals(0, board.pieceCount(WHITE));
+    }
+
+    /** Check that the lazily refreshed threat map (Board.enPriseLo and
+     *  Board.kingAttackLo) matches one found by trying every move of both
+     *  sides, after every move and every undo of random games. */
+    @Test
+    public void testThreatMap() {
+        Random gen = new Random(19);
+        int[] moves = new int[Board.MAX_MOVES];
+        int threats = 0;
+        for (int g = 0; g < GAMES; g += 1) {
+            Board board = new Board();
+            while (board.winner() == null
+                   && board.moveCount() < GAME_LENGTH) {
+                int n = board.legalMoves(board.turn(), moves, 0);
+                board.makeMove(moves[gen.nextInt(n)]);
+                if (gen.nextInt(4) == 0) {
+                    board.undo();
+                }
+                long[] expected = threats(board);
+                String msg = board.toString();
+                assertEquals(msg, expected[0], board.enPriseLo(WHITE)
+                             | board.enPriseLo(BLACK));
+                assertEquals(msg, expected[1], board.enPriseHi(WHITE)
+                             | board.enPriseHi(BLACK));
+                assertEquals(msg, expected[2], board.kingAttackLo());
+                assertEquals(msg, expected[3], board.kingAttackHi());
+                threats += Long.bitCount(expected[0] | expected[2]);
+            }
+        }
+        assertTrue(threats > 0);
+    }
+
+    /** Check every entry of BitBoard.LINE_REACH and BitBoard.LINE_EXITS
+     *  against a walk along the line. */
+    @Test
+    public void testLineTables() {
+        for (int occ = 0; occ < BitBoard.LINE_OCCUPANCIES; occ += 1) {
+            int exits = 0;
+            for (int p = 0; p < SIZE; p += 1) {
+                int reach = 0;
+                boolean exit = false;
+                for (int dir = -1; dir <= 1; dir += 2) {
+                    for (int q = p + dir; q >= 0 && q < SIZE
+                             && (occ & 1 << q) == 0; q += dir) {
+                        reach |= 1 << q;
+                        exit |= q == 0 || q == SIZE - 1;
+                    }
+                }
+                assertEquals(reach, BitBoard.LINE_REACH[p][occ]);
+                if (exit && (occ & 1 << p) == 0 && p != 0 && p != SIZE - 1) {
+                    exits |= 1 << p;
+                }
+            }
+            assertEquals(exits, BitBoard.LINE_EXITS[occ]);
+        }
+    }
+
+    /** Check isUnblockedMove, cornerDistance, and isCornerApproach in
+     *  positions from random games against walks along the rows and
+     *  columns and a breadth-first search of the king's moves. */
+    @Test
+    public void testKingPaths() {
+        Random gen = new Random(31);
+        int[] moves = new int[Board.MAX_MOVES];
+        int[] distances = new int[Board.MAX_CORNER_DISTANCE + 2];
+        for (int g = 0; g < GAMES; g += 1) {
+            Board board = new Board();
+            while (board.winner() == null
+                   && board.moveCount() < GAME_LENGTH) {
+                int n = board.legalMoves(board.turn(), moves, 0);
+                board.makeMove(moves[gen.nextInt(n)]);
+                if (board.winner() != null) {
+                    break;
+                }
+                String msg = board.toString();
+                Piece[] cells = new Piece[NUM_SQUARES];
+                for (int i = 0; i < NUM_SQUARES; i += 1) {
+                    cells[i] = board.get(sq(i));
+                }
+                for (int i = 0; i < NUM_SQUARES; i += 1) {
+                    boolean[] reach = reach(cells, i);
+                    for (int j = 0; j < NUM_SQUARES; j += 1) {
+                        assertEquals(msg + sq(i) + "-" + sq(j), reach[j],
+                                     board.isUnblockedMove(sq(i), sq(j)));
+                    }
+                }
+                int king = board.kingIndex();
+                cells[king] = EMPTY;
+                int distance = cornerDistance(cells, king);
+                assertEquals(msg, distance, board.cornerDistance());
+                distances[distance] += 1;
+                for (int i = 0; i < NUM_SQUARES; i += 1) {
+                    if (cells[i] == EMPTY && i != king && !isCorner(i)) {
+                        assertEquals(msg + "to " + sq(i),
+                                     cornerDistance(cells, i) == 1,
+                                     board.isCornerApproach(i));
+                    }
+                }
+            }
+        }
+        for (int d = 1; d < distances.length; d += 1) {
+            assertTrue("no positions at distance " + d, distances[d] > 0);
+        }
+    }
+
+    /** Check the value Board.exchange gives to captures, with and without
+     *  a recapture (including one through the square just emptied), and
+     *  to quiet moves into and away from a sandwich. */
+    @Test
+    public void testExchangeCaptures() {
+        Board board = position(WHITE, "Kh2", "Bc3", "Wb3", "Wd5");
+        assertEquals(1, exchange(board, "d5", "d3"));
+
+        board = position(WHITE, "Kh2", "Bc3", "Wb3", "Wd5", "Be3", "Bc1");
+        assertEquals(0, exchange(board, "d5", "d3"));
+
+        board = position(WHITE, "Kh2", "Bc3", "Be4", "Wd6");
+        assertEquals(-1, exchange(board, "d6", "d4"));
+        assertEquals(0, exchange(board, "d6", "d7"));
+
+        board = position(WHITE, "Kh2", "Bc3", "Wb3", "Wd5", "Be3", "Bc6");
+        assertEquals(0, exchange(board, "d5", "d3"));
+    }
+
+    /** Check the value Board.exchange gives to moves next to the throne,
+     *  which is hostile when empty, and hostile to white when the king
+     *  is on it with three black pieces around it. */
+    @Test
+    public void testExchangeNearThrone() {
+        Board board = position(WHITE, "Kh2", "Wa6", "Bc7");
+        assertEquals(-1, exchange(board, "a6", "e6"));
+
+        board = position(WHITE, "Ke5", "Bd5", "Bf5", "Wa6", "Bc7");
+        assertEquals(0, exchange(board, "a6", "e6"));
+
+        board = position(WHITE, "Ke5", "Bd5", "Bf5", "Be4", "Wa6", "Bc7");
+        assertEquals(-1, exchange(board, "a6", "e6"));
+
+        board = position(BLACK, "Kh2", "Ba4", "Wc3");
+        assertEquals(-1, exchange(board, "a4", "e4"));
+
+        board = position(BLACK, "Ke5", "Ba4", "Wc3");
+        assertEquals(-1, exchange(board, "a4", "e4"));
+    }
+
+    /** Check the value Board.exchange gives to capturing the king, and
+     *  to king moves that let black capture it, on and off the squares
+     *  next to the throne. */
+    @Test
+    public void testExchangeKing() {
+        Board board = position(BLACK, "Kc3", "Bb3", "Bd1");
+        assertEquals(Board.KING_EXCHANGE, exchange(board, "d1", "d3"));
+
+        board = position(BLACK, "Ke5", "Bd5", "Bf5", "Be4", "Bc6");
+        assertEquals(Board.KING_EXCHANGE, exchange(board, "c6", "e6"));
+
+        board = position(WHITE, "Kc7", "Bc3", "Ba5");
+        assertEquals(-Board.KING_EXCHANGE, exchange(board, "c7", "c4"));
+        assertEquals(0, exchange(board, "c7", "c6"));
+
+        board = position(WHITE, "Ke8", "Bd6", "Bf6", "Bc7");
+        assertEquals(-Board.KING_EXCHANGE, exchange(board, "e8", "e6"));
+
+        board = position(WHITE, "Ke8", "Bd6", "Bc7");
+        assertEquals(0, exchange(board, "e8", "e6"));
+    }
+
+    /** Check Board.exchange for every legal move in positions from random
+     *  games against the captures made by the move and the replies to
+     *  it, found with make and undo. */
+    @Test
+    public void testExchangeMatchesReplies() {
+        Random gen = new Random(23);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int g = 0; g < GAMES / 4; g += 1) {
+            Board board = new Board();
+            while (board.winner() == null
+                   && board.moveCount() < GAME_LENGTH) {
+                int n = board.legalMoves(board.turn(), moves, 0);
+                if (gen.nextInt(4) == 0) {
+                    for (int k = 0; k < n; k += 1) {
+                        int expected = exchangeByReplies(board, moves[k]);
+                        if (expected != Integer.MIN_VALUE) {
+                            assertEquals(board.toString(), expected,
+                                         board.exchange(moves[k]));
+                        }
+                    }
+                }
+                board.makeMove(moves[gen.nextInt(n)]);
+            }
+        }
+    }
+
+    /** Check that the value an Evaluator keeps up to date as moves are
+     *  made and undone in random games always equals the value computed
+     *  from scratch, including after captures, king moves, Board.copy,
+     *  and Board.init. */
+    @Test
+    public void testEvaluatorFollowsBoard() {
+        Random gen = new Random(37);
+        int[] moves = new int[Board.MAX_MOVES];
+        Board board = new Board(), copy = new Board();
+        Evaluator evaluator = new Evaluator(), copyEvaluator = new Evaluator();
+        board.setListener(evaluator);
+        copy.setListener(copyEvaluator);
+        int captures = 0, kingMoves = 0;
+        for (int g = 0; g < GAMES; g += 1) {
+            board.init();
+            assertEquals(Evaluator.score(rebuilt(board)),
+                         evaluator.value(board, -INFTY, INFTY));
+            while (board.winner() == null
+                   && board.moveCount() < GAME_LENGTH) {
+                int n = board.legalMoves(board.turn(), moves, 0);
+                int move = moves[gen.nextInt(n)];
+                for (int k = 0; k < n && gen.nextBoolean(); k += 1) {
+                    if (board.isCapture(moves[k])
+                        || Move.from(moves[k]) == board.kingIndex()) {
+                        move = moves[k];
+                        break;
+                    }
+                }
+                captures += board.captures(move);
+                kingMoves += Move.from(move) == board.kingIndex() ? 1 : 0;
+                board.makeMove(move);
+                if (gen.nextInt(5) == 0) {
+                    board.undo();
+                }
+                if (board.winner() == null) {
+                    assertEquals(board.toString(),
+                                 Evaluator.score(rebuilt(board)),
+                                 evaluator.value(board, -INFTY, INFTY));
+                }
+                if (gen.nextInt(10) == 0) {
+                    copy.copy(board);
+                    if (copy.winner() == null) {
+                        assertEquals(Evaluator.score(rebuilt(board)),
+                                     copyEvaluator.value(copy, -INFTY,
+                                                         INFTY));
+                    }
+                }
+            }
+            while (board.moveCount() > 0) {
+                board.undo();
+                assertEquals(board.toString(),
+                             Evaluator.score(rebuilt(board)),
+                             evaluator.value(board, -INFTY, INFTY));
+            }
+        }
+        assertTrue(captures > 0 && kingMoves > 0);
+    }
+
+    /** Check, for positions of random games and windows around their
+     *  values, that Evaluator.value returns the value computed with all
+     *  stages when that is strictly inside the window, and otherwise a
+     *  bound on it that is outside the window on the same side. */
+    @Test
+    public void testEvaluatorWindows() {
+        Random gen = new Random(41);
+        int[] moves = new int[Board.MAX_MOVES];
+        int[] widths = { 1, 2, 25, 100, 400 };
+        Board board = new Board();
+        Evaluator evaluator = new Evaluator();
+        board.setListener(evaluator);
+        for (int g = 0; g < GAMES; g += 1) {
+            board.init();
+            while (board.winner() == null
+                   && board.moveCount() < GAME_LENGTH) {
+                int exact = Evaluator.score(rebuilt(board));
+                for (int w = 0; w < widths.length; w += 1) {
+                    int alpha = exact - widths[w] - 500 + gen.nextInt(1000),
+                        beta = alpha + widths[w];
+                    int value = evaluator.value(board, alpha, beta);
+                    String msg = "window " + alpha + ", " + beta
+                        + " exact " + exact + " value " + value + " on\n"
+                        + board;
+                    if (exact <= alpha) {
+                        assertTrue(msg, exact <= value && value <= alpha);
+                    } else if (exact >= beta) {
+                        assertTrue(msg, beta <= value && value <= exact);
+                    } else {
+                        assertEquals(msg, exact, value);
+                    }
+                }
+                int n = board.legalMoves(board.turn(), moves, 0);
+                board.makeMove(moves[gen.nextInt(n)]);
+            }
+        }
+        assertTrue(evaluator.stageCount(1) < evaluator.stageCount(0));
+        assertTrue(evaluator.stageCount(2) < evaluator.stageCount(1));
+    }
+
+    /** Check that the Solver finds a forced escape of the king: from c3
+     *  it reaches the empty first row, from which black cannot block both
+     *  corners.  With black to move, black cannot stop this either, and
+     *  a Search with a Solver should find the loss, which is too deep
+     *  for its first iteration to see. */
+    @Test
+    public void testSolverEscape() {
+        Board board = position(WHITE, "Kc3", "Wd7", "Bf7", "Bg6");
+        Solver solver = new Solver();
+        assertNull(solver.solve(board, WHITE, 1, SOLVE_LIMIT));
+        int[] line = solver.solve(board, WHITE, Solver.DEFAULT_DEPTH,
+                                  SOLVE_LIMIT);
+        assertEquals(3, checkedLine(board, line, WHITE));
+        assertNull(solver.solve(board, BLACK, Solver.DEFAULT_DEPTH,
+                                SOLVE_LIMIT));
+        board.setTurn(BLACK);
+        Search search = new Search(new TranspositionTable(1 << 16, false));
+        search.setSolver(solver, Solver.DEFAULT_DEPTH, SOLVE_LIMIT);
+        search.reset(board);
+        assertEquals(-Search.WINNING_VALUE + 4,
+                     search.run(1, 1, Long.MAX_VALUE, 0));
+        assertEquals(4, checkedLine(board, search.principalVariation(),
+                                    WHITE));
+    }
+
+    /** Check that the Solver finds a forced capture of the king, and
+     *  that a Search with a Solver uses it. */
+    @Test
+    public void testSolverCapture() {
+        Board board = position(BLACK, "Kh4", "Wg4", "Bh2", "Bi3", "Bg5");
+        Solver solver = new Solver();
+        assertNull(solver.solve(board, BLACK, 1, SOLVE_LIMIT));
+        int[] line = solver.solve(board, BLACK, Solver.DEFAULT_DEPTH,
+                                  SOLVE_LIMIT);
+        assertEquals(3, checkedLine(board, line, BLACK));
+        Search search = new Search(new TranspositionTable(1 << 16, false));
+        search.setSolver(solver, Solver.DEFAULT_DEPTH, SOLVE_LIMIT);
+        search.reset(board);
+        assertEquals(Search.WINNING_VALUE - 3,
+                     search.run(1, 1, Long.MAX_VALUE, 0));
+        assertEquals(3, checkedLine(board, search.principalVariation(),
+                                    BLACK));
+    }
+
+    /** Check, for every index of two small endgame tables, that the
+     *  position it decodes to gets an index no greater than it, that
+     *  this index decodes to a position with the same index, and that
+     *  all eight symmetric images of the position get that index too. */
+    @Test
+    public void testTableIndices() {
+        int[] scratch = new int[Tablebase.SCRATCH_SIZE];
+        Board board = new Board(), image = new Board();
+        for (Tablebase table : new Tablebase[] {
+                tables()[2][0], tables()[1][1] }) {
+            for (long p = 0; p < table.size(); p += 1) {
+                table.decode(p, board);
+                long index = table.index(board, scratch);
+                assertTrue(index <= p);
+                table.decode(index, image);
+                assertEquals(index, table.index(image, scratch));
+                for (int t = 0; t < 8; t += 1) {
+                    clear(image);
+                    for (int i = 0; i < NUM_SQUARES; i += 1) {
+                        if (board.get(sq(i)) != EMPTY) {
+                            image.put(board.get(sq(i)), sq(symmetry(t, i)));
+                        }
+                    }
+                    image.setTurn(board.turn());
+                    assertEquals(index, table.index(image, scratch));
+                }
+            }
+        }
+    }
+
+    /** Check the codes of a few positions whose results are known: the
+     *  king on an empty edge wins at once if it is white's move and
+     *  cannot be stopped if it is black's, and a king that black can
+     *  capture at once is lost. */
+    @Test
+    public void testTableCodes() {
+        int[] scratch = new int[Tablebase.SCRATCH_SIZE];
+        Tablebase table = tables()[2][0];
+        Board board = position(WHITE, "Kc1", "Be9", "Bf8");
+        assertEquals(Tablebase.winCode(1),
+                     table.code(table.index(board, scratch)));
+        board.setTurn(BLACK);
+        assertEquals(Tablebase.lossCode(2),
+                     table.code(table.index(board, scratch)));
+        board = position(BLACK, "Kc3", "Bc4", "Bh2");
+        assertEquals(Tablebase.winCode(1),
+                     table.code(table.index(board, scratch)));
+    }
+
+    /** Check that entries stored in transposition tables, on and off
+     *  the heap, are found with the values stored, that other keys in
+     *  the same bucket miss, and that an entry stored without a move
+     *  keeps the move of the entry it replaces. */
+    @Test
+    public void testTranspositionTableStore() {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            TranspositionTable table = new TranspositionTable(1 << 12,
+                                                              offHeap);
+            long buckets = table.capacity() / 2;
+            long key = 0x123456789ABCDEFL, other = key + 7 * buckets;
+            assertEquals(0, table.probe(key));
+            int move = Move.code(sq("e5").index(), sq("e9").index());
+            table.store(key, 5, TranspositionTable.LOWER, -1234, move);
+            long data = table.probe(key);
+            assertEquals(5, TranspositionTable.depth(data));
+            assertEquals(TranspositionTable.LOWER,
+                         TranspositionTable.bound(data));
+            assertEquals(-1234, TranspositionTable.score(data));
+            assertEquals(move, TranspositionTable.move(data));
+            assertEquals(0, table.probe(other));
+            assertEquals(0, table.probe(key + 1));
+            table.store(key, 6, TranspositionTable.UPPER,
+                        Search.WINNING_VALUE, 0);
+            data = table.probe(key);
+            assertEquals(6, TranspositionTable.depth(data));
+            assertEquals(TranspositionTable.UPPER,
+                         TranspositionTable.bound(data));
+            assertEquals(Search.WINNING_VALUE, TranspositionTable.score(data));
+            assertEquals(move, TranspositionTable.move(data));
+            table.clear();
+            assertEquals(0, table.probe(key));
+        }
+    }
+
+    /** Check the replacement policy of a transposition table: in each
+     *  bucket, the first slot keeps the deepest result of the current
+     *  search and the second takes whatever the first does not. */
+    @Test
+    public void testTranspositionTableReplacement() {
+        TranspositionTable table = new TranspositionTable(1 << 12, false);
+        long buckets = table.capacity() / 2;
+        long[] keys = new long[5];
+        for (int k = 0; k < keys.length; k += 1) {
+            keys[k] = 42 + (k + 1) * buckets;
+        }
+        table.store(keys[0], 8, TranspositionTable.EXACT, 10, 0);
+        table.store(keys[1], 3, TranspositionTable.EXACT, 20, 0);
+        assertEquals(8, TranspositionTable.depth(table.probe(keys[0])));
+        assertEquals(3, TranspositionTable.depth(table.probe(keys[1])));
+        table.store(keys[2], 2, TranspositionTable.EXACT, 30, 0);
+        assertEquals(8, TranspositionTable.depth(table.probe(keys[0])));
+        assertEquals(0, table.probe(keys[1]));
+        assertEquals(2, TranspositionTable.depth(table.probe(keys[2])));
+        table.store(keys[3], 9, TranspositionTable.EXACT, 40, 0);
+        assertEquals(0, table.probe(keys[0]));
+        assertEquals(2, TranspositionTable.depth(table.probe(keys[2])));
+        assertEquals(9, TranspositionTable.depth(table.probe(keys[3])));
+        table.newSearch();
+        table.store(keys[4], 1, TranspositionTable.EXACT, 50, 0);
+        assertEquals(0, table.probe(keys[3]));
+        assertEquals(2, TranspositionTable.depth(table.probe(keys[2])));
+        assertEquals(1, TranspositionTable.depth(table.probe(keys[4])));
+    }
+
+    /** Check that a transposition table slot holding the key word of
+     *  one store and the data word of another, as a torn write would
+     *  leave it, reads as a miss for both keys. */
+    @Test
+    public void testTranspositionTableTornEntries() {
+        TranspositionTable table = new TranspositionTable(1 << 12, false);
+        long buckets = table.capacity() / 2;
+        long first = 0x7F3A + buckets, second = first + buckets;
+        table.store(first, 4, TranspositionTable.EXACT, 100, 0);
+        long keyWord = table.slotWord(first, 0, 0),
+            data = table.slotWord(first, 0, 1);
+        table.clear();
+        table.store(second, 6, TranspositionTable.LOWER, -100, 0);
+        long otherKeyWord = table.slotWord(second, 0, 0),
+            otherData = table.slotWord(second, 0, 1);
+        assertEquals(second, otherKeyWord ^ otherData);
+        table.setSlotWord(first, 0, 0, keyWord);
+        assertEquals(0, table.probe(first));
+        assertEquals(0, table.probe(second));
+        table.setSlotWord(first, 0, 0, otherKeyWord);
+        table.setSlotWord(first, 0, 1, data);
+        assertEquals(0, table.probe(first));
+        assertEquals(0, table.probe(second));
+        table.setSlotWord(first, 0, 0, keyWord);
+        assertEquals(data, table.probe(first));
+    }
+
+    /** Check that threads storing and probing entries for colliding keys
+     *  in a one-bucket transposition table never see an entry whose
+     *  words come from different stores: each hit must hold exactly the
+     *  values stored for its key. */
+    @Test
+    public void testTranspositionTableConcurrentStores()
+        throws InterruptedException {
+        TranspositionTable table = new TranspositionTable(1, false);
+        assertEquals(2, table.capacity());
+        long[] keys = new long[8];
+        for (int k = 0; k < keys.length; k += 1) {
+            keys[k] = (k + 1) * 0x9E3779B97F4A7C15L;
+        }
+        int[] mismatches = new int[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t += 1) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (int r = 0; r < PROBES * 100; r += 1) {
+                    int k = (first + r) % keys.length;
+                    long key = keys[k];
+                    if (r % 2 == 0) {
+                        table.store(key, k + 1, TranspositionTable.EXACT,
+                                    (int) key, k + 1);
+                    } else {
+                        long data = table.probe(key);
+                        if (data != 0
+                            && (TranspositionTable.depth(data) != k + 1
+                                || TranspositionTable.score(data)
+                                   != (int) key
+                                || TranspositionTable.move(data) != k + 1)) {
+                            synchronized (mismatches) {
+                                mismatches[0] += 1;
+                            }
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, mismatches[0]);
+    }
+
+    /** Check that endgame tables give the same indices and codes when
+     *  probed from several threads at once as from one. */
+    @Test
+    public void testConcurrentTableProbes() throws InterruptedException {
+        Tablebase table = tables()[2][0];
+        Random gen = new Random(17);
+        Board[] boards = new Board[PROBES];
+        long[] indices = new long[PROBES];
+        int[] scratch = new int[Tablebase.SCRATCH_SIZE];
+        for (int k = 0; k < PROBES; k += 1) {
+            int[] squares = new int[3];
+            do {
+                for (int j = 0; j < 3; j += 1) {
+                    squares[j] = gen.nextInt(NUM_SQUARES);
+                }
+            } while (squares[0] == squares[1] || squares[0] == squares[2]
+                     || squares[1] == squares[2]
+                     || squares[1] == Board.THRONE_INDEX
+                     || squares[2] == Board.THRONE_INDEX);
+            boards[k] = position(gen.nextBoolean() ? WHITE : BLACK,
+                                 "K" + sq(squares[0]), "B" + sq(squares[1]),
+                                 "B" + sq(squares[2]));
+            indices[k] = table.index(boards[k], scratch);
+        }
+        int[] mismatches = new int[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t += 1) {
+            threads[t] = new Thread(() -> {
+                int[] mine = new int[Tablebase.SCRATCH_SIZE];
+                for (int r = 0; r < 20; r += 1) {
+                    for (int k = 0; k < PROBES; k += 1) {
+                        long index = table.index(boards[k], mine);
+                        if (index != indices[k]
+                            || table.code(index)
+                               != table.code(indices[k])) {
+                            synchronized (mismatches) {
+                                mismatches[0] += 1;
+                            }
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, mismatches[0]);
+    }
+
+    /** Check that a ParallelSearch on a pool of four threads finds the
+     *  same move and value as one with no pool, at depths 3 to 5 from
+     *  positions of random games.  The same two searches are reused for
+     *  every position, as the AI reuses its own. */
+    @Test
+    public void testParallelMatchesSerial() {
+        Random gen = new Random(29);
+        int[] moves = new int[Board.MAX_MOVES];
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ParallelSearch serial = new ParallelSearch(null),
+            parallel = new ParallelSearch(pool);
+        try {
+            for (int g = 0; g < SEARCHES; g += 1) {
+                Board board = new Board();
+                int length = 60 + gen.nextInt(60);
+                while (board.winner() == null && board.moveCount() < length) {
+                    int n = board.legalMoves(board.turn(), moves, 0);
+                    board.makeMove(moves[gen.nextInt(n)]);
+                }
+                if (board.winner() != null) {
+                    continue;
+                }
+                for (int depth = 3; depth <= 5; depth += 1) {
+                    String msg = "depth " + depth + " on\n" + board;
+                    serial.reset(board);
+                    parallel.reset(board);
+                    assertEquals(msg,
+                                 serial.run(depth, depth, Long.MAX_VALUE, 0),
+                                 parallel.run(depth, depth, Long.MAX_VALUE,
+                                              0));
+                    assertEquals(msg, serial.bestMove(), parallel.bestMove());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Check that LINE, which must not be null, is a sequence of legal
+     *  moves from BOARD after which WINNER has won, and return its
+     *  length. */
+    private static int checkedLine(Board board, int[] line, Piece winner) {
+        assertNotNull(line);
+        Board trial = new Board(board);
+        for (int move : line) {
+            assertNull(trial.winner());
+            trial.makeMove(sq(Move.from(move)), sq(Move.to(move)));
+        }
+        assertEquals(winner, trial.winner());
+        return line.length;
+    }
+
+    /** Return the endgame tables for the king with up to two other
+     *  pieces, of which at most one is white, generating them the first
+     *  time they are needed. */
+    private static synchronized Tablebase[][] tables() {
+        if (_tables == null) {
+            _tables = new Tablebase[3][2];
+            for (int n = 0; n <= 2; n += 1) {
+                for (int w = 0; w <= 1 && w <= n; w += 1) {
+                    _tables[n - w][w] = Tablebase.generate(n - w, w, _tables);
+                }
+            }
+        }
+        return _tables;
+    }
+
+    /** Return the image of square index I under the symmetry T of the
+     *  board (0 <= T < 8): a quarter turn clockwise T % 4 times, after
+     *  a reflection left to right if T >= 4. */
+    private static int symmetry(int t, int i) {
+        int col = t >= 4 ? SIZE - 1 - i % SIZE : i % SIZE, row = i / SIZE;
+        for (int k = 0; k < t % 4; k += 1) {
+            int c = col;
+            col = row;
+            row = SIZE - 1 - c;
+        }
+        return row * SIZE + col;
+    }
+
+    /** Return the squares a piece on square index FROM could slide to
+     *  past the pieces on CELLS (indexed by square index): REACH[j] is
+     *  true iff the squares from FROM up to and including J, other than
+     *  FROM, are all EMPTY. */
+    private static boolean[] reach(Piece[] cells, int from) {
+        boolean[] reach = new boolean[NUM_SQUARES];
+        for (int d = 0; d < 4; d += 1) {
+            for (int n = 1; step(from, d, n) >= 0
+                     && cells[step(from, d, n)] == EMPTY; n += 1) {
+                reach[step(from, d, n)] = true;
+            }
+        }
+        return reach;
+    }
+
+    /** Return the least number of moves, at most
+     *  Board.MAX_CORNER_DISTANCE, in which a king on square index FROM
+     *  could reach a corner past the pieces on CELLS if black did not
+     *  move, or Board.MAX_CORNER_DISTANCE + 1 if it could not. */
+    private static int cornerDistance(Piece[] cells, int from) {
+        int[] distance = new int[NUM_SQUARES];
+        Arrays.fill(distance, -1);
+        distance[from] = 0;
+        List<Integer> queue = new ArrayList<>();
+        queue.add(from);
+        for (int k = 0; k < queue.size(); k += 1) {
+            int i = queue.get(k);
+            if (isCorner(i)) {
+                return distance[i];
+            }
+            if (distance[i] == Board.MAX_CORNER_DISTANCE) {
+                continue;
+            }
+            boolean[] reach = reach(cells, i);
+            for (int j = 0; j < NUM_SQUARES; j += 1) {
+                if (reach[j] && distance[j] < 0) {
+                    distance[j] = distance[i] + 1;
+                    queue.add(j);
+                }
+            }
+        }
+        return Board.MAX_CORNER_DISTANCE + 1;
+    }
+
+    /** Return true iff square index I is a corner. */
+    private static boolean isCorner(int i) {
+        for (int corner : Board.CORNER_INDICES) {
+            if (i == corner) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the threat map of BOARD, found by making each move of
+     *  each side on a copy: the LO and HI words of the pieces that could
+     *  be captured, followed by those of the squares to which black could
+     *  move to capture the king. */
+    private static long[] threats(Board board) {
+        long[] result = new long[4];
+        int[] moves = new int[Board.MAX_MOVES];
+        for (Piece side : new Piece[] { WHITE, BLACK }) {
+            Board trial = new Board(board);
+            trial.setTurn(side);
+            int n = trial.legalMoves(side, moves, 0);
+            for (int k = 0; k < n; k += 1) {
+                String before = snapshot(trial);
+                trial.makeMove(moves[k]);
+                for (int i = 0; i < NUM_SQUARES; i += 1) {
+                    Piece p = board.get(sq(i));
+                    if (p != EMPTY && p.side() != side
+                        && trial.get(sq(i)) == EMPTY) {
+                        result[0] |= BitBoard.lo(i);
+                        result[1] |= BitBoard.hi(i);
+                        if (p == KING) {
+                            result[2] |= BitBoard.lo(Move.to(moves[k]));
+                            result[3] |= BitBoard.hi(Move.to(moves[k]));
+                        }
+                    }
+                }
+                trial.undo();
+                assertEquals(before, snapshot(trial));
+            }
+        }
+        return result;
+    }
+
+    /** Return BOARD.exchange for the move FROM-TO, given as square
+     *  names. */
+    private static int exchange(Board board, String from, String to) {
+        return board.exchange(Move.code(sq(from).index(), sq(to).index()));
+    }
+
+    /** Return the value of MOVE on BOARD as Board.exchange defines it,
+     *  found by making the move and each reply, or Integer.MIN_VALUE if
+     *  MOVE ends the game otherwise than by capturing the king. */
+    private static int exchangeByReplies(Board board, int move) {
+        Piece side = board.turn(), prey = side.opponent();
+        int to = Move.to(move);
+        Board trial = new Board(board);
+        Piece moved = trial.get(sq(Move.from(move)));
+        int before = trial.pieceCount(prey);
+        trial.makeMove(move);
+        if (trial.winner() == BLACK && trial.kingIndex() < 0) {
+            return Board.KING_EXCHANGE;
+        } else if (trial.winner() != null) {
+            return Integer.MIN_VALUE;
+        }
+        int taken = before - trial.pieceCount(prey);
+        int[] replies = new int[Board.MAX_MOVES];
+        int n = trial.legalMoves(prey, replies, 0);
+        for (int k = 0; k < n; k += 1) {
+            trial.makeMove(replies[k]);
+            boolean lost = trial.get(sq(to)) != moved;
+            trial.undo();
+            if (lost) {
+                return moved == KING ? -Board.KING_EXCHANGE : taken - 1;
+            }
+        }
+        return taken;
+    }
+
+    /** Return the square indices of the pieces that MOVE, a legal move on
+     *  BOARD, captures according to the rules, applied square by square
+     *  without Board's tables, in increasing order. */
+    private static List<Integer> expectedCaptures(Board board, int move) {
+        Piece[] cells = new Piece[NUM_SQUARES];
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            cells[i] = board.get(sq(i));
+        }
+        int from = Move.from(move), to = Move.to(move);
+        Piece mover = cells[from].side();
+        cells[to] = cells[from];
+        cells[from] = EMPTY;
+        List<Integer> result = new ArrayList<>();
+        for (int d = 0; d < 4; d += 1) {
+            int victim = step(to, d, 1), beyond = step(to, d, 2);
+            if (victim < 0 || cells[victim] == EMPTY
+                || cells[victim].side() == mover) {
+                continue;
+            }
+            boolean taken;
+            if (cells[victim] == KING && isNearThrone(victim)) {
+                taken = true;
+                for (int e = 0; e < 4; e += 1) {
+                    int n = step(victim, e, 1);
+                    taken &= cells[n] == BLACK
+                        || (n == Board.THRONE_INDEX && cells[n] == EMPTY);
+                }
+            } else {
+                taken = beyond >= 0 && isHostile(cells, beyond,
+                                                  cells[victim]);
+            }
+            if (taken) {
+                result.add(victim);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Return true iff square index I in CELLS is hostile to VICTIM. */
+    private static boolean isHostile(Piece[] cells, int i, Piece victim) {
+        if (cells[i] != EMPTY && cells[i].side() != victim.side()) {
+            return true;
+        } else if (i != Board.THRONE_INDEX) {
+            return false;
+        } else if (cells[i] == EMPTY) {
+            return true;
+        }
+        int blacks = 0;
+        for (int d = 0; d < 4; d += 1) {
+            if (cells[step(i, d, 1)] == BLACK) {
+                blacks += 1;
+            }
+        }
+        return cells[i] == KING && victim == WHITE && blacks >= 3;
+    }
+
+    /** Return true iff square index I is the throne or next to it. */
+    private static boolean isNearThrone(int i) {
+        int dc = Math.abs(i % SIZE - Board.THRONE_INDEX % SIZE),
+            dr = Math.abs(i / SIZE - Board.THRONE_INDEX / SIZE);
+        return dc + dr <= 1;
+    }
+
+    /** Return the index of the square N steps from square index I in
+     *  direction D (as for Square.rookMove), or -1 if it is off the
+     *  board. */
+    private static int step(int i, int d, int n) {
+        int col = i % SIZE + (d == 1 ? n : d == 3 ? -n : 0),
+            row = i / SIZE + (d == 0 ? n : d == 2 ? -n : 0);
+        if (col < 0 || col >= SIZE || row < 0 || row >= SIZE) {
+            return -1;
+        }
+        return row * SIZE + col;
+    }
+
+    /** Return the square indices, in increasing order, of the pieces that
+     *  were on BOARD in the position described by BEFORE (see snapshot)
+     *  and that are gone after MOVE, other than the moved piece. */
+    private static List<Integer> removed(Board board, String before,
+                                         int move) {
+        List<Integer> result = new ArrayList<>();
+        String cells = before.substring(0, NUM_SQUARES);
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            if (i != Move.from(move) && cells.charAt(i) != '-'
+                && board.get(sq(i)) == EMPTY) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /** Return a string describing everything about the position on
+     *  BOARD that make and undo must keep: the contents of each square
+     *  (first, one character per square), the side to move, the winner,
+     *  the hash, the move count, the piece lists (as sorted sets, after
+     *  checking them against the squares), and the bit masks. */
+    static String snapshot(Board board) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            out.append(board.get(sq(i)).toString());
+        }
+        out.append(' ').append(board.turn()).append(' ')
+            .append(board.winner()).append(' ')
+            .append(Long.toHexString(board.hash())).append(' ')
+            .append(board.moveCount()).append(' ')
+            .append(board.kingIndex());
+        for (Piece p : new Piece[] { WHITE, BLACK, KING }) {
+            int[] squares = new int[board.pieceCount(p)];
+            for (int k = 0; k < squares.length; k += 1) {
+                squares[k] = board.pieceSquare(p, k);
+                assertEquals(p, board.get(sq(squares[k])));
+            }
+            Arrays.sort(squares);
+            out.append(' ').append(Arrays.toString(squares))
+                .append(Long.toHexString(board.piecesLo(p))).append('/')
+                .append(Long.toHexString(board.piecesHi(p)));
+        }
+        out.append(' ').append(Long.toHexString(board.occupiedLo()))
+            .append('/').append(Long.toHexString(board.occupiedHi()));
+        return out.toString();
+    }
+
+    /** Return a new Board with the pieces of BOARD and its side to move,
+     *  set up one piece at a time on an empty board. */
+    static Board rebuilt(Board board) {
+        Board result = new Board();
+        clear(result);
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            if (board.get(sq(i)) != EMPTY) {
+                result.put(board.get(sq(i)), sq(i));
+            }
+        }
+        result.setTurn(board.turn());
+        return result;
+    }
+
+    /** Return a new Board with SIDE to move holding only PIECES, each a
+     *  piece letter (K, W, or B) followed by the name of its square. */
+    static Board position(Piece side, String... pieces) {
+        Board result = new Board();
+        clear(result);
+        for (String p : pieces) {
+            Piece piece = p.charAt(0) == 'K' ? KING
+                : p.charAt(0) == 'W' ? WHITE : BLACK;
+            result.put(piece, sq(p.substring(1)));
+        }
+        result.setTurn(side);
+        return result;
+    }
+
+    /** Remove all pieces from BOARD. */
+    private static void clear(Board board) {
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            board.put(EMPTY, sq(i));
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package tablut;
+
+import java.util.Random;
+
+import static tablut.Square.NUM_SQUARES;
+
+/** Random keys for Zobrist hashing of Tablut positions.  The hash of a
+ *  position is the XOR of the key of each (piece, square) pair on the
+ *  board and, when black is to move, BLACK_TO_MOVE, so it may be updated
+ *  incrementally as pieces are added and removed.  The keys come from a
+ *  fixed seed, so hashes are the same from run to run.
+ *  @author Jeremy Ahn
+ */
+final class Zobrist {
+
+    /** Seed for the key generator. */
+    private static final long SEED = 0x7AB1D7L;
+
+    /** KEYS[p][i] is the key for Piece with ordinal P on square index I.
+     *  The keys for EMPTY are all 0. */
+    private static final long[][] KEYS =
+        new long[Piece.values().length][NUM_SQUARES];
+
+    /** Key XORed into the hash of positions with black to move. */
+    static final long BLACK_TO_MOVE;
+
+    /** Not instantiable. */
+    private Zobrist() {
+    }
+
+    /** Return the key for piece P on the square with index INDEX. */
+    static long key(Piece p, int index) {
+        return KEYS[p.ordinal()][index];
+    }
+
+    /** Return the key contribution of having SIDE to move. */
+    static long turnKey(Piece side) {
+        return side == Piece.BLACK ? BLACK_TO_MOVE : 0L;
+    }
+
+    static {
+        Random gen = new Random(SEED);
+        for (Piece p : Piece.values()) {
+            if (p != Piece.EMPTY) {
+                for (int i = 0; i < NUM_SQUARES; i += 1) {
+                    KEYS[p.ordinal()][i] = gen.nextLong();
+                }
+            }
+        }
+        BLACK_TO_MOVE = gen.nextLong();
+    }
+}